@@ -0,0 +1,206 @@
+package net.hollowcube.polar.benchmark;
+
+import net.hollowcube.polar.CompressionType;
+import net.hollowcube.polar.model.PolarChunk;
+import net.hollowcube.polar.model.PolarSection;
+import net.hollowcube.polar.model.PolarWorld;
+import net.hollowcube.polar.util.LightUtil;
+import net.hollowcube.polar.util.PaletteUtil;
+import net.kyori.adventure.nbt.BinaryTagTypes;
+import net.kyori.adventure.nbt.CompoundBinaryTag;
+import net.kyori.adventure.nbt.ListBinaryTag;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic worlds for the benchmarks, with the height of the default overworld. Worlds are generated from a fixed
+ * seed, so every run (and every version) benchmarks the same worlds.
+ */
+public final class BenchmarkWorlds {
+    public static final byte MIN_SECTION = -4;
+    public static final byte MAX_SECTION = 19;
+    public static final int SECTION_COUNT = MAX_SECTION - MIN_SECTION + 1;
+
+    private static final int SEA_LEVEL = 62;
+    private static final int HEIGHTMAP_BITS = 9;
+
+    private static final String[] BIOMES = {"minecraft:plains", "minecraft:forest", "minecraft:desert", "minecraft:river"};
+
+    public enum Type {
+        /**
+         * Chunks without any block, as saved by an empty instance.
+         */
+        VOID,
+        /**
+         * A superflat world: bedrock, stone, dirt and grass in the lowest section.
+         */
+        FLAT,
+        /**
+         * Hilly terrain with caves, ores, water and several biomes, so palettes are large and light is mixed.
+         */
+        NOISE,
+        /**
+         * A flat world covered in chests and signs, each with their own data.
+         */
+        BLOCK_ENTITIES
+    }
+
+    private BenchmarkWorlds() {}
+
+    /**
+     * Creates a world of {@code (2 * radius)^2} chunks around the origin.
+     */
+    public static @NotNull PolarWorld create(@NotNull Type type, @NotNull CompressionType compression, int radius) {
+        return new PolarWorld(PolarWorld.LATEST_VERSION, compression, MIN_SECTION, MAX_SECTION, chunks(type, radius));
+    }
+
+    public static @NotNull List<PolarChunk> chunks(@NotNull Type type, int radius) {
+        Random random = new Random(type.ordinal());
+        List<PolarChunk> chunks = new ArrayList<>();
+        for (int x = -radius; x < radius; x++) {
+            for (int z = -radius; z < radius; z++) {
+                chunks.add(switch (type) {
+                    case VOID -> voidChunk(x, z);
+                    case FLAT -> flatChunk(x, z, List.of());
+                    case NOISE -> noiseChunk(x, z, random);
+                    case BLOCK_ENTITIES -> flatChunk(x, z, blockEntities(random));
+                });
+            }
+        }
+        return chunks;
+    }
+
+    private static @NotNull PolarChunk voidChunk(int x, int z) {
+        PolarSection[] sections = new PolarSection[SECTION_COUNT];
+        Arrays.fill(sections, new PolarSection());
+        return new PolarChunk(x, z, sections, List.of(), new byte[PolarChunk.HEIGHTMAPS.length][], new byte[0]);
+    }
+
+    private static @NotNull PolarChunk flatChunk(int x, int z, @NotNull List<PolarChunk.BlockEntity> blockEntities) {
+        String[] palette = {
+                "minecraft:air", "minecraft:bedrock", "minecraft:stone", "minecraft:dirt",
+                "minecraft:grass_block[snowy=false]", "minecraft:chest[facing=north,type=single,waterlogged=false]",
+                "minecraft:oak_sign[rotation=0,waterlogged=false]"
+        };
+        int[] blocks = new int[PolarSection.BLOCK_PALETTE_SIZE];
+        for (int i = 0; i < blocks.length; i++) {
+            int y = i >> 8;
+            blocks[i] = y == 0 ? 1 : y < 3 ? 2 : y < 5 ? 3 : y == 5 ? 4 : 0;
+        }
+        for (PolarChunk.BlockEntity blockEntity : blockEntities) {
+            int index = (blockEntity.y() - MIN_SECTION * 16) << 8 | blockEntity.z() << 4 | blockEntity.x();
+            blocks[index] = "minecraft:chest".equals(blockEntity.id()) ? 5 : 6;
+        }
+
+        PolarSection[] sections = new PolarSection[SECTION_COUNT];
+        byte[] skyLight = new byte[LightUtil.LIGHT_SIZE];
+        Arrays.fill(skyLight, 6 * 128, LightUtil.LIGHT_SIZE, (byte) 0xFF);
+        sections[0] = new PolarSection(palette, blocks, new String[]{BIOMES[0]}, null,
+                LightUtil.uniform(0), skyLight);
+        for (int i = 1; i < sections.length; i++) {
+            sections[i] = new PolarSection(new String[]{"minecraft:air"}, null, new String[]{BIOMES[0]}, null,
+                    LightUtil.uniform(0), LightUtil.uniform(15));
+        }
+
+        int[] heights = new int[256];
+        Arrays.fill(heights, 6);
+        return new PolarChunk(x, z, sections, blockEntities, heightmaps(heights), new byte[0]);
+    }
+
+    private static @NotNull PolarChunk noiseChunk(int chunkX, int chunkZ, @NotNull Random random) {
+        String[] palette = {
+                "minecraft:air", "minecraft:stone", "minecraft:dirt", "minecraft:grass_block[snowy=false]",
+                "minecraft:water[level=0]", "minecraft:sand", "minecraft:gravel", "minecraft:coal_ore",
+                "minecraft:iron_ore", "minecraft:copper_ore", "minecraft:diorite", "minecraft:andesite",
+                "minecraft:granite", "minecraft:deepslate[axis=y]", "minecraft:tuff", "minecraft:cave_air",
+                "minecraft:bedrock"
+        };
+
+        int[] heights = new int[256];
+        for (int i = 0; i < heights.length; i++) {
+            double worldX = chunkX * 16 + (i & 15), worldZ = chunkZ * 16 + (i >> 4);
+            heights[i] = (int) (SEA_LEVEL + 12 * Math.sin(worldX / 23) * Math.cos(worldZ / 31)
+                    + 6 * Math.sin((worldX + worldZ) / 11) + random.nextInt(2));
+        }
+
+        PolarSection[] sections = new PolarSection[SECTION_COUNT];
+        for (int sectionIndex = 0; sectionIndex < SECTION_COUNT; sectionIndex++) {
+            int minY = (MIN_SECTION + sectionIndex) * 16;
+            int[] blocks = new int[PolarSection.BLOCK_PALETTE_SIZE];
+            byte[] skyLight = new byte[LightUtil.LIGHT_SIZE];
+            for (int i = 0; i < blocks.length; i++) {
+                int y = minY + (i >> 8), height = heights[i & 255];
+                int block;
+                if (y == -64) block = 16;
+                else if (y > height) block = y <= SEA_LEVEL ? 4 : 0;
+                else if (y == height) block = height < SEA_LEVEL ? 5 : 3;
+                else if (y > height - 4) block = height < SEA_LEVEL ? 6 : 2;
+                else if (random.nextInt(48) == 0) block = 15;
+                else if (random.nextInt(64) == 0) block = 7 + random.nextInt(3);
+                else if (random.nextInt(16) == 0) block = 10 + random.nextInt(3);
+                else block = y < 0 ? 13 + random.nextInt(2) : 1;
+                blocks[i] = block;
+
+                int light = y > height ? 15 : 0;
+                skyLight[i >> 1] |= (byte) (light << ((i & 1) << 2));
+            }
+
+            String[] biomePalette = BIOMES;
+            int[] biomes = new int[PolarSection.BIOME_PALETTE_SIZE];
+            for (int i = 0; i < biomes.length; i++)
+                biomes[i] = Math.floorMod(chunkX + chunkZ + (i >> 4), BIOMES.length);
+
+            sections[sectionIndex] = minY > SEA_LEVEL + 24
+                    ? new PolarSection(new String[]{"minecraft:air"}, null, biomePalette, biomes,
+                    LightUtil.uniform(0), LightUtil.uniform(15))
+                    : new PolarSection(palette, blocks, biomePalette, biomes, LightUtil.uniform(0), skyLight);
+        }
+
+        int[] heightmap = new int[heights.length];
+        for (int i = 0; i < heights.length; i++)
+            heightmap[i] = Math.max(heights[i], SEA_LEVEL) + 1 - MIN_SECTION * 16;
+        return new PolarChunk(chunkX, chunkZ, sections, List.of(), heightmaps(heightmap), new byte[0]);
+    }
+
+    private static @NotNull List<PolarChunk.BlockEntity> blockEntities(@NotNull Random random) {
+        List<PolarChunk.BlockEntity> blockEntities = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            int x = i & 15, z = (i >> 4) * 4 + random.nextInt(4);
+            if (random.nextBoolean()) {
+                ListBinaryTag.Builder<CompoundBinaryTag> items = ListBinaryTag.builder(BinaryTagTypes.COMPOUND);
+                for (int slot = 0; slot < 27; slot += 1 + random.nextInt(4)) {
+                    items.add(CompoundBinaryTag.builder()
+                            .putByte("Slot", (byte) slot)
+                            .putString("id", random.nextBoolean() ? "minecraft:diamond" : "minecraft:oak_planks")
+                            .putInt("count", 1 + random.nextInt(64))
+                            .build());
+                }
+                blockEntities.add(new PolarChunk.BlockEntity(x, MIN_SECTION * 16 + 6, z, "minecraft:chest",
+                        CompoundBinaryTag.builder().put("Items", items.build()).build()));
+            } else {
+                blockEntities.add(new PolarChunk.BlockEntity(x, MIN_SECTION * 16 + 6, z, "minecraft:sign",
+                        CompoundBinaryTag.builder()
+                                .putString("front_text", "{\"text\":\"Sign " + random.nextInt(1000) + "\"}")
+                                .putBoolean("is_waxed", false)
+                                .build()));
+            }
+        }
+        return blockEntities;
+    }
+
+    private static byte @NotNull [] @NotNull [] heightmaps(int @NotNull [] heights) {
+        long[] packed = PaletteUtil.pack(heights, HEIGHTMAP_BITS);
+        ByteBuffer buffer = ByteBuffer.allocate(packed.length * Long.BYTES);
+        buffer.asLongBuffer().put(packed);
+
+        byte[][] heightmaps = new byte[PolarChunk.HEIGHTMAPS.length][];
+        heightmaps[PolarChunk.heightmapIndex(PolarChunk.HEIGHTMAP_MOTION_BLOCKING)] = buffer.array();
+        heightmaps[PolarChunk.heightmapIndex(PolarChunk.HEIGHTMAP_WORLD_SURFACE)] = buffer.array();
+        return heightmaps;
+    }
+}
@@ -0,0 +1,62 @@
+package net.hollowcube.polar.benchmark;
+
+import net.hollowcube.polar.CompressionType;
+import net.hollowcube.polar.PolarFormat;
+import net.hollowcube.polar.model.PolarChunk;
+import net.hollowcube.polar.model.PolarWorld;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading and writing whole worlds, without Minestom.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormatBenchmark {
+    @Param({"VOID", "FLAT", "NOISE", "BLOCK_ENTITIES"})
+    public BenchmarkWorlds.Type world;
+
+    @Param({"NONE", "ZSTD", "LZ4"})
+    public CompressionType compression;
+
+    @Param({"false", "true"})
+    public boolean chunkFrames;
+
+    @Param("8")
+    public int radius;
+
+    private List<PolarChunk> chunks;
+    private byte[] worldBytes;
+
+    @Setup
+    public void setup() {
+        chunks = BenchmarkWorlds.chunks(world, radius);
+        worldBytes = PolarFormat.WRITER.write(newWorld());
+    }
+
+    private PolarWorld newWorld() {
+        PolarWorld polarWorld = new PolarWorld(PolarWorld.LATEST_VERSION, compression,
+                BenchmarkWorlds.MIN_SECTION, BenchmarkWorlds.MAX_SECTION, chunks);
+        polarWorld.setChunkFrames(chunkFrames);
+        return polarWorld;
+    }
+
+    @Benchmark
+    public PolarWorld read() {
+        return PolarFormat.READER.read(worldBytes);
+    }
+
+    /**
+     * Writes a world which was never written before, so every chunk is encoded.
+     */
+    @Benchmark
+    public byte[] write() {
+        return PolarFormat.WRITER.write(newWorld());
+    }
+}
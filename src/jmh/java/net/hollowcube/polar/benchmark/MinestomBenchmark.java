@@ -0,0 +1,65 @@
+package net.hollowcube.polar.benchmark;
+
+import net.hollowcube.polar.CompressionType;
+import net.hollowcube.polar.minestom.integration.InMemoryPolarWorld;
+import net.hollowcube.polar.model.PolarChunk;
+import net.hollowcube.polar.model.PolarWorld;
+import net.minestom.server.MinecraftServer;
+import net.minestom.server.instance.Chunk;
+import net.minestom.server.instance.InstanceContainer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converting chunks between Polar and Minestom, in both directions. Each operation converts every chunk of the world.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MinestomBenchmark {
+    @Param({"VOID", "FLAT", "NOISE", "BLOCK_ENTITIES"})
+    public BenchmarkWorlds.Type world;
+
+    @Param("4")
+    public int radius;
+
+    private InstanceContainer instance;
+    private InMemoryPolarWorld polarWorld;
+    private List<Chunk> chunks;
+
+    @Setup
+    public void setup() {
+        MinecraftServer.init();
+        instance = MinecraftServer.getInstanceManager().createInstanceContainer();
+        polarWorld = new InMemoryPolarWorld(BenchmarkWorlds.create(world, CompressionType.ZSTD, radius));
+
+        chunks = new ArrayList<>();
+        for (PolarChunk chunk : polarWorld.getPolarWorld().chunks())
+            chunks.add(polarWorld.getLoader().loadChunk(instance, chunk.x(), chunk.z()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        MinecraftServer.stopCleanly();
+    }
+
+    @Benchmark
+    public void loadChunks(Blackhole blackhole) {
+        PolarWorld polar = polarWorld.getPolarWorld();
+        for (PolarChunk chunk : polar.chunks())
+            blackhole.consume(polarWorld.getLoader().loadChunk(instance, chunk.x(), chunk.z()));
+    }
+
+    @Benchmark
+    public PolarWorld saveChunks() {
+        polarWorld.getSaver().writeChunksDataToMemory(chunks);
+        return polarWorld.getPolarWorld();
+    }
+}
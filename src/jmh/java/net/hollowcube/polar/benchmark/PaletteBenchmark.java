@@ -0,0 +1,47 @@
+package net.hollowcube.polar.benchmark;
+
+import net.hollowcube.polar.model.PolarSection;
+import net.hollowcube.polar.util.PaletteUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packing and unpacking the block data of a single section.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaletteBenchmark {
+    @Param({"1", "2", "4", "5", "8", "12", "15"})
+    public int bitsPerEntry;
+
+    private int[] data;
+    private long[] packed;
+    private int[] out;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(bitsPerEntry);
+        data = new int[PolarSection.BLOCK_PALETTE_SIZE];
+        for (int i = 0; i < data.length; i++)
+            data[i] = random.nextInt(1 << bitsPerEntry);
+        packed = PaletteUtil.pack(data, bitsPerEntry);
+        out = new int[data.length];
+    }
+
+    @Benchmark
+    public long[] pack() {
+        return PaletteUtil.pack(data, bitsPerEntry);
+    }
+
+    @Benchmark
+    public int[] unpack() {
+        PaletteUtil.unpack(out, packed, bitsPerEntry);
+        return out;
+    }
+}
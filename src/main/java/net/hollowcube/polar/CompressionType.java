@@ -2,9 +2,18 @@ package net.hollowcube.polar;
 
 import org.jetbrains.annotations.Nullable;
 
+/**
+ * The compression of a world, or of its chunk frames. The id of a compression type is written in the header of the
+ * world, so new types are only ever added at the end.
+ */
 public enum CompressionType {
     NONE,
-    ZSTD;
+    ZSTD,
+    /**
+     * Compresses less than zstd, but decompresses several times faster. Suited to worlds which are read far more
+     * often than they are written.
+     */
+    LZ4;
 
     private static final CompressionType[] VALUES = values();
 
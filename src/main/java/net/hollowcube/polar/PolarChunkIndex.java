@@ -0,0 +1,159 @@
+package net.hollowcube.polar;
+
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.hollowcube.polar.model.EncodedChunk;
+import net.hollowcube.polar.model.PolarChunk;
+import net.hollowcube.polar.model.PolarStringTable;
+import net.minestom.server.coordinate.CoordConversion;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The location of every chunk inside the content of a Polar world, read with {@link PolarReader#readIndex(byte[])}
+ * or one of its variants.
+ * <p>
+ * Holding an index does not decode any chunk, each chunk is decoded on request by {@link #readChunk(int, int)}.
+ * The exception are worlds older than {@link net.hollowcube.polar.model.PolarWorld#VERSION_CHUNK_INDEX}, which are
+ * decoded as a whole when the index is read.
+ * If the world uses {@link #chunkFrames()}, chunks are also decompressed on request.
+ * The index is immutable, apart from its string table which only grows, and safe to read from multiple threads.
+ */
+public final class PolarChunkIndex {
+    private final PolarReader reader;
+    private final short version;
+    private final CompressionType compression;
+    private final boolean chunkFrames;
+    private final @Nullable ZstdDictionary zstdDictionary;
+
+    private final byte minSection;
+    private final byte maxSection;
+
+    // Decompressed content (unless using chunk frames), entries are relative to contentStart.
+    // May be a mapped file, in which case chunks are copied out of it when decoded.
+    private final ByteBuffer content;
+    private final int contentStart;
+    private final Long2LongMap entries;
+    private final PolarStringTable strings;
+    // Worlds without an index are decoded entirely to build one, the chunks are kept instead of decoded again.
+    private final @Nullable Long2ObjectMap<PolarChunk> decodedChunks;
+
+    PolarChunkIndex(
+            @NotNull PolarReader reader, short version, @NotNull CompressionType compression, boolean chunkFrames,
+            @Nullable ZstdDictionary zstdDictionary, byte minSection, byte maxSection,
+            @NotNull ByteBuffer content, int contentStart,
+            @NotNull Long2LongMap entries, @NotNull PolarStringTable strings,
+            @Nullable Long2ObjectMap<PolarChunk> decodedChunks
+    ) {
+        this.reader = reader;
+        this.version = version;
+        this.compression = compression;
+        this.chunkFrames = chunkFrames;
+        this.zstdDictionary = zstdDictionary;
+        this.minSection = minSection;
+        this.maxSection = maxSection;
+        this.content = content;
+        this.contentStart = contentStart;
+        this.entries = entries;
+        this.entries.defaultReturnValue(-1L);
+        this.strings = strings;
+        this.decodedChunks = decodedChunks;
+    }
+
+    static long entry(int offset, int length) {
+        return ((long) offset << 32) | (length & 0xFFFFFFFFL);
+    }
+
+    /**
+     * The reader the index was read with, which decodes its chunks.
+     */
+    public @NotNull PolarReader reader() {
+        return reader;
+    }
+
+    public short version() {
+        return version;
+    }
+
+    public @NotNull CompressionType compression() {
+        return compression;
+    }
+
+    public boolean chunkFrames() {
+        return chunkFrames;
+    }
+
+    /**
+     * The dictionary of the zstd chunk frames, null if the world does not have one.
+     */
+    public @Nullable ZstdDictionary zstdDictionary() {
+        return zstdDictionary;
+    }
+
+    public byte minSection() {
+        return minSection;
+    }
+
+    public byte maxSection() {
+        return maxSection;
+    }
+
+    /**
+     * The string table of the world, empty before {@link net.hollowcube.polar.model.PolarWorld#VERSION_CHUNK_INDEX}.
+     * A world read lazily from the index keeps adding to this table, which does not move the strings already in it.
+     */
+    public @NotNull PolarStringTable strings() {
+        return strings;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean contains(int x, int z) {
+        return entries.containsKey(CoordConversion.chunkIndex(x, z));
+    }
+
+    /**
+     * Returns the {@link CoordConversion#chunkIndex(int, int)} of every chunk in the world.
+     */
+    public @NotNull LongSet chunkIndices() {
+        return entries.keySet();
+    }
+
+    /**
+     * Returns the chunk as it is stored in the world, without decoding or decompressing it.
+     */
+    public @Nullable EncodedChunk encodedChunk(int x, int z) {
+        long entry = entries.get(CoordConversion.chunkIndex(x, z));
+        if (entry == -1L) return null;
+
+        byte[] data = new byte[(int) entry];
+        content.get(contentStart + (int) (entry >>> 32), data);
+        return new EncodedChunk(version, chunkFrames ? compression : null, chunkFrames ? zstdDictionary : null, strings, data);
+    }
+
+    public @Nullable PolarChunk readChunk(int x, int z) {
+        if (decodedChunks != null) return decodedChunks.get(CoordConversion.chunkIndex(x, z));
+
+        long entry = entries.get(CoordConversion.chunkIndex(x, z));
+        if (entry == -1L) return null;
+
+        int offset = contentStart + (int) (entry >>> 32), length = (int) entry;
+        byte[] data;
+        if (content.hasArray()) {
+            data = content.array();
+            offset += content.arrayOffset();
+        } else {
+            data = new byte[length];
+            content.get(offset, data);
+            offset = 0;
+        }
+
+        return reader.readChunk(version, chunkFrames ? compression : null, zstdDictionary,
+                data, offset, length, strings, maxSection - minSection + 1);
+    }
+}
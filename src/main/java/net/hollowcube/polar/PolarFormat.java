@@ -5,4 +5,6 @@ public class PolarFormat {
     public static final PolarReader READER = new PolarReader();
 
     public static final int MAGIC_NUMBER = 0x506F6C72; // `Polr`
+    public static final int JOURNAL_MAGIC_NUMBER = 0x506F6C4A; // `PolJ`
+    public static final int SHARDS_MAGIC_NUMBER = 0x506F6C53; // `PolS`
 }
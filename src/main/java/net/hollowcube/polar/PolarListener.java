@@ -0,0 +1,69 @@
+package net.hollowcube.polar;
+
+/**
+ * Receives the timings and sizes of each phase of reading and writing a world, for metrics.
+ * <p>
+ * Readers and writers report to the listener given to {@link PolarReader#withListener(PolarListener)} and
+ * {@link PolarWriter#withListener(PolarListener)}, and the Minestom loader to
+ * {@link net.hollowcube.polar.minestom.PolarChunkLoader#setListener(PolarListener)}. Every method does nothing by
+ * default, so implementations only override what they record.
+ * <p>
+ * Methods are called on the thread doing the work, which for chunks is usually a pool thread, so implementations
+ * must be thread safe and should return quickly, for example by adding to a {@link java.util.concurrent.atomic.LongAdder}
+ * or a Micrometer timer, or by committing a JFR event. Durations are in nanoseconds.
+ */
+public interface PolarListener {
+    PolarListener NONE = new PolarListener() {};
+
+    /**
+     * A world was read, with {@link PolarReader#read(byte[])}, {@link PolarReader#readIndex(byte[])} or one of
+     * their variants. When only the index is read, chunks are decoded later and reported on their own.
+     *
+     * @param bytes The size of the world as stored
+     */
+    default void worldRead(long bytes, int chunkCount, long nanos) {}
+
+    /**
+     * The content of a world, or a single chunk frame, was decompressed. Content decompressed while it is streamed
+     * is not reported, its time is part of {@link #worldRead(long, int, long)}.
+     */
+    default void decompressed(CompressionType compression, int compressedBytes, int uncompressedBytes, long nanos) {}
+
+    /**
+     * A chunk was decoded from its stored form, not including decompression.
+     */
+    default void chunkDecoded(int x, int z, long nanos) {}
+
+    /**
+     * A chunk was loaded into a Minestom instance, including decoding it if it was not decoded yet.
+     */
+    default void chunkLoaded(int x, int z, long nanos) {}
+
+    /**
+     * Minestom chunks were copied into the world on the tick thread, before being saved or when unloaded.
+     */
+    default void chunksSnapshot(int chunkCount, long nanos) {}
+
+    /**
+     * A chunk was encoded by the writer, not including compression. Chunks which were not updated since they
+     * were last read or written are reused as they are, and not reported.
+     *
+     * @param bytes The size of the encoded chunk
+     */
+    default void chunkEncoded(int x, int z, int bytes, long nanos) {}
+
+    /**
+     * The content of a world, or a single chunk frame, was compressed. Content compressed while it is streamed
+     * is not reported, its time is part of {@link #worldWritten(long, int, long)}.
+     */
+    default void compressed(CompressionType compression, int uncompressedBytes, int compressedBytes, long nanos) {}
+
+    /**
+     * A world was written, with {@link PolarWriter#write(net.hollowcube.polar.model.PolarWorld)} or one of its
+     * variants. A {@link net.hollowcube.polar.minestom.JournalPolarChunkLoader} also reports each append to its
+     * journal, with the updated chunks only.
+     *
+     * @param bytes The size of the world as stored
+     */
+    default void worldWritten(long bytes, int chunkCount, long nanos) {}
+}
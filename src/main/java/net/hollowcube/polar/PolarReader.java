@@ -1,9 +1,21 @@
 package net.hollowcube.polar;
 
 import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdException;
+import com.github.luben.zstd.ZstdInputStream;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.hollowcube.polar.model.EncodedChunk;
 import net.hollowcube.polar.model.PolarChunk;
 import net.hollowcube.polar.model.PolarSection;
+import net.hollowcube.polar.model.PolarStringTable;
 import net.hollowcube.polar.model.PolarWorld;
+import net.hollowcube.polar.util.LightUtil;
 import net.hollowcube.polar.util.PaletteUtil;
 import net.kyori.adventure.nbt.BinaryTag;
 import net.kyori.adventure.nbt.CompoundBinaryTag;
@@ -14,12 +26,26 @@ import net.minestom.server.utils.chunk.ChunkUtils;
 import net.minestom.server.utils.nbt.BinaryTagReader;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 import static net.minestom.server.network.NetworkBuffer.*;
 
@@ -30,49 +56,473 @@ public class PolarReader {
     private static final int MAX_CHUNKS = Integer.MAX_VALUE;
     private static final int MAX_BLOCK_PALETTE_SIZE = 16*16*16;
     private static final int MAX_BIOME_PALETTE_SIZE = 8*8*8;
+    private static final int MAX_STRINGS = Integer.MAX_VALUE;
+    // 256 heights of 13 bits, enough for the tallest world Minecraft allows, packed 4 per long
+    private static final int MAX_HEIGHTMAP_SIZE = 64 * Long.BYTES;
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    // Magic number, version, compression, chunk frames and content length
+    private static final int MAX_HEADER_SIZE = 4 + 2 + 1 + 1 + 5;
+    // Min and max section, chunk count
+    private static final int MAX_PRELUDE_SIZE = 1 + 1 + 5;
 
     private static final NetworkBuffer.Type<byte[]> LIGHT_DATA = NetworkBuffer.FixedRawBytes(2048);
     private static final NetworkBuffer.Type<byte[]> HEIGHTMAP_SLICE = NetworkBuffer.FixedRawBytes(32);
 
-    protected PolarReader() {}
+    private final PolarListener listener;
+
+    protected PolarReader() {
+        this(PolarListener.NONE);
+    }
+
+    protected PolarReader(@NotNull PolarListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns a reader which reports to the given listener, including for chunks decoded later from the indices
+     * it reads.
+     */
+    public @NotNull PolarReader withListener(@NotNull PolarListener listener) {
+        return new PolarReader(listener);
+    }
+
+    public @NotNull PolarListener listener() {
+        return listener;
+    }
 
     public @NotNull PolarWorld read(byte[] data) {
+        long start = System.nanoTime();
         NetworkBuffer buffer = NetworkBuffer.wrap(data, 0, data.length);
         buffer.writeIndex(data.length); // Set write index to end so readableBytes returns remaining bytes
 
-        Integer magicNumber = buffer.read(INT);
-        assertThat(magicNumber == PolarFormat.MAGIC_NUMBER, "Invalid magic number");
+        Header header = readHeader(buffer);
+        PolarWorld world = readWorld(header, data, (int) buffer.readIndex());
+        reportWorldRead(data.length, world, start);
+        return world;
+    }
 
-        short version = buffer.read(SHORT);
-        validateVersion(version);
+    /**
+     * Reads a world from the given stream, decompressing it as it arrives. Each chunk is decoded on the common
+     * pool as soon as it has been read, rather than after the whole world has been read.
+     * <p>
+     * The stream is not closed.
+     */
+    public @NotNull PolarWorld read(@NotNull InputStream in) throws IOException {
+        long start = System.nanoTime();
+        CountingInputStream counted = new CountingInputStream(in);
+        in = new BufferedInputStream(counted, STREAM_BUFFER_SIZE);
+        Header header = readHeader(in);
+
+        PolarWorld world;
+        if (header.version() < PolarWorld.VERSION_CHUNK_INDEX) {
+            // Chunks are not length prefixed before this version, so they cannot be split out of the stream.
+            world = readWorld(header, in.readAllBytes(), 0);
+        } else {
+            try (InputStream content = decompressContent(in, header)) {
+                world = readWorld(header, content);
+            }
+        }
+        reportWorldRead(counted.count, world, start);
+        return world;
+    }
 
-        CompressionType compression = CompressionType.fromId(buffer.read(BYTE));
-        assertThat(compression != null, "Invalid compression type");
-        Integer compressedDataLength = buffer.read(VAR_INT);
+    /**
+     * @see #read(InputStream)
+     */
+    public @NotNull PolarWorld read(@NotNull ReadableByteChannel channel) throws IOException {
+        return read(Channels.newInputStream(channel));
+    }
+
+    private @NotNull PolarWorld readWorld(@NotNull Header header, @NotNull InputStream content) throws IOException {
+        byte minSection = readByte(content), maxSection = readByte(content);
+        assertThat(minSection < maxSection, "Invalid section range");
+        int sectionCount = maxSection - minSection + 1;
+
+        int chunkCount = readVarInt(content);
+        assertThat(chunkCount >= 0 && chunkCount <= MAX_CHUNKS, "Invalid chunk count");
+        CompressionType frameCompression = header.chunkFrames() ? header.compression() : null;
+        List<CompletableFuture<PolarChunk>> chunks = new ArrayList<>(chunkCount);
+        byte[] dictionaryData = readRecord(content);
+        ZstdDictionary dictionary = dictionaryData.length == 0 ? null : new ZstdDictionary(dictionaryData);
+
+        // Each group of chunks is preceded by the strings it adds to the table, so its chunks can be decoded
+        // right away. Strings never move once added, so chunks being decoded are not affected by later groups.
+        PolarStringTable table = new PolarStringTable();
+        while (chunks.size() < chunkCount) {
+            int stringCount = readVarInt(content);
+            assertThat(stringCount >= 0 && stringCount <= MAX_STRINGS - table.size(), "Invalid string count");
+            for (int i = 0; i < stringCount; i++) {
+                table.add(new String(readRecord(content), StandardCharsets.UTF_8));
+            }
 
-        // Replace the buffer with a "decompressed" version. This is a no-op if compression is NONE.
-        buffer = decompressBuffer(buffer, compression, compressedDataLength);
+            int recordCount = readVarInt(content);
+            assertThat(recordCount > 0 && recordCount <= chunkCount - chunks.size(), "Invalid chunk group");
+            for (int i = 0; i < recordCount; i++) {
+                byte[] record = readRecord(content);
+                chunks.add(CompletableFuture.supplyAsync(() -> readChunk(header.version(), frameCompression,
+                        dictionary, record, 0, record.length, table, sectionCount), ForkJoinPool.commonPool()));
+            }
+        }
+        // The trailing index is not needed when reading every chunk.
+
+        try {
+            PolarWorld world = new PolarWorld(header.version(), header.compression(), minSection, maxSection,
+                    chunks.stream().map(CompletableFuture::join).toList());
+            world.setChunkFrames(header.chunkFrames());
+            world.setZstdDictionary(dictionary);
+            return world;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw e;
+        }
+    }
+
+    private @NotNull PolarWorld readWorld(@NotNull Header header, byte[] data, int offset) {
+        short version = header.version();
+        CompressionType compression = header.compression();
+        boolean chunkFrames = header.chunkFrames();
+
+        NetworkBuffer buffer = NetworkBuffer.wrap(data, offset, data.length);
+
+        // Replace the buffer with a "decompressed" version. This is a no-op if compression is NONE, or if
+        // each chunk is compressed separately.
+        if (!chunkFrames)
+            buffer = decompressBuffer(buffer, compression, header.length());
 
         byte minSection = buffer.read(BYTE), maxSection = buffer.read(BYTE);
         assertThat(minSection < maxSection, "Invalid section range");
+        int sectionCount = maxSection - minSection + 1;
 
         int chunkCount = buffer.read(VAR_INT);
-        List<PolarChunk> chunks = new ArrayList<>(chunkCount);
-        for (int i = 0; i < chunkCount; ++i) {
-            PolarChunk chunk = readChunk(version, buffer, maxSection - minSection + 1);
-            chunks.add(chunk);
+        assertThat(chunkCount >= 0 && chunkCount <= MAX_CHUNKS, "Invalid chunk count");
+        List<PolarChunk> chunks;
+        ZstdDictionary dictionary = null;
+        PolarStringTable strings = null;
+        int[] offsets = new int[chunkCount], lengths = new int[chunkCount];
+        if (version >= PolarWorld.VERSION_CHUNK_INDEX) {
+            // Collect the strings of every group of chunks on the way to the end of the content.
+            dictionary = readDictionary(buffer);
+            strings = new PolarStringTable();
+            for (int i = 0; i < chunkCount; ) {
+                readStrings(buffer, strings);
+                int recordCount = buffer.read(VAR_INT);
+                assertThat(recordCount > 0 && recordCount <= chunkCount - i, "Invalid chunk group");
+                for (int end = i + recordCount; i < end; i++) {
+                    lengths[i] = buffer.read(VAR_INT);
+                    offsets[i] = (int) buffer.readIndex();
+                    buffer.readIndex(offsets[i] + lengths[i]);
+                }
+            }
         }
 
-        return new PolarWorld(version, compression, minSection, maxSection, chunks);
+        if (chunkFrames) {
+            // Decompress and decode every frame in parallel.
+            ZstdDictionary frameDictionary = dictionary;
+            PolarStringTable frameStrings = strings;
+            PolarChunk[] frames = new PolarChunk[chunkCount];
+            IntStream.range(0, chunkCount).parallel().forEach(i -> frames[i] = readChunk(version, compression,
+                    frameDictionary, data, offsets[i], lengths[i], frameStrings, sectionCount));
+            chunks = Arrays.asList(frames);
+        } else if (version >= PolarWorld.VERSION_CHUNK_INDEX) {
+            chunks = new ArrayList<>(chunkCount);
+            for (int chunkOffset : offsets) {
+                buffer.readIndex(chunkOffset);
+                chunks.add(readChunk(version, buffer, strings, sectionCount));
+            }
+        } else {
+            chunks = new ArrayList<>(chunkCount);
+            for (int i = 0; i < chunkCount; ++i) {
+                PolarChunk chunk = readChunk(version, buffer, null, sectionCount);
+                chunks.add(chunk);
+            }
+        }
+
+        PolarWorld world = new PolarWorld(version, compression, minSection, maxSection, chunks);
+        world.setChunkFrames(chunkFrames);
+        world.setZstdDictionary(dictionary);
+        return world;
+    }
+
+    /**
+     * Reads the header and chunk index of a Polar world, without decoding any chunk. Chunks may then be
+     * decoded individually through {@link PolarChunkIndex#readChunk(int, int)}.
+     * <p>
+     * Worlds older than {@link PolarWorld#VERSION_CHUNK_INDEX} do not contain an index, so one is built
+     * by decoding every chunk once. The index keeps those chunks, so they are not decoded a second time.
+     */
+    public @NotNull PolarChunkIndex readIndex(byte[] data) {
+        long start = System.nanoTime();
+        PolarChunkIndex index = readArrayIndex(data);
+        listener.worldRead(data.length, index.size(), System.nanoTime() - start);
+        return index;
+    }
+
+    private @NotNull PolarChunkIndex readArrayIndex(byte[] data) {
+        NetworkBuffer buffer = NetworkBuffer.wrap(data, 0, data.length);
+        buffer.writeIndex(data.length);
+
+        Header header = readHeader(buffer);
+        int length = header.length();
+
+        // Offsets in the index are relative to the start of the (decompressed) content. With chunk frames
+        // nothing is decompressed up front, each chunk is decompressed when it is read.
+        byte[] content = data;
+        int contentStart = (int) buffer.readIndex();
+        if (!header.chunkFrames() && header.compression() != CompressionType.NONE) {
+            content = decompress(buffer.read(RAW_BYTES), header.compression(), length);
+            contentStart = 0;
+            length = content.length;
+        } else if (length == 0) {
+            // Streamed content runs to the end of the data.
+            length = data.length - contentStart;
+        }
+        return readIndex(header, content, contentStart, length);
+    }
+
+    /**
+     * Reads the chunk index of a world from the given stream. Compressed content is decompressed as it arrives,
+     * so the compressed world is never held in memory. The stream is not closed.
+     *
+     * @see #readIndex(byte[])
+     */
+    public @NotNull PolarChunkIndex readIndex(@NotNull InputStream in) throws IOException {
+        long start = System.nanoTime();
+        CountingInputStream counted = new CountingInputStream(in);
+        in = new BufferedInputStream(counted, STREAM_BUFFER_SIZE);
+        Header header = readHeader(in);
+
+        byte[] content;
+        try (InputStream stream = decompressContent(in, header)) {
+            content = stream.readAllBytes();
+        }
+        PolarChunkIndex index = readIndex(header, content, 0, content.length);
+        listener.worldRead(counted.count, index.size(), System.nanoTime() - start);
+        return index;
+    }
+
+    /**
+     * @see #readIndex(InputStream)
+     */
+    public @NotNull PolarChunkIndex readIndex(@NotNull ReadableByteChannel channel) throws IOException {
+        return readIndex(Channels.newInputStream(channel));
+    }
+
+    /**
+     * Reads the chunk index of a world from the given buffer, typically a file mapped with
+     * {@link java.nio.channels.FileChannel#map}. Uncompressed worlds and worlds with chunk frames are read in
+     * place: only the index is copied to the heap, and each chunk is copied out of the buffer when it is decoded.
+     * <p>
+     * Worlds compressed as a whole, and worlds older than {@link PolarWorld#VERSION_CHUNK_INDEX}, cannot be read
+     * in place and are copied to the heap first.
+     */
+    public @NotNull PolarChunkIndex readIndex(@NotNull ByteBuffer data) {
+        long start = System.nanoTime();
+        data = data.slice();
+        PolarChunkIndex index = readBufferIndex(data);
+        listener.worldRead(data.limit(), index.size(), System.nanoTime() - start);
+        return index;
+    }
+
+    private @NotNull PolarChunkIndex readBufferIndex(@NotNull ByteBuffer data) {
+
+        byte[] headerBytes = new byte[Math.min(MAX_HEADER_SIZE, data.limit())];
+        data.get(0, headerBytes);
+        NetworkBuffer buffer = NetworkBuffer.wrap(headerBytes, 0, headerBytes.length);
+        Header header = readHeader(buffer);
+
+        if (header.version() < PolarWorld.VERSION_CHUNK_INDEX
+                || (!header.chunkFrames() && header.compression() != CompressionType.NONE)) {
+            byte[] bytes = new byte[data.limit()];
+            data.get(0, bytes);
+            return readArrayIndex(bytes);
+        }
+
+        int contentStart = (int) buffer.readIndex();
+        int length = header.length() != 0 ? header.length() : data.limit() - contentStart;
+        assertThat(contentStart + length <= data.limit(), "Truncated world content");
+
+        // The prelude is followed by the length of the dictionary.
+        byte[] preludeBytes = new byte[Math.min(MAX_PRELUDE_SIZE + 5, length)];
+        data.get(contentStart, preludeBytes);
+        NetworkBuffer prelude = NetworkBuffer.wrap(preludeBytes, 0, preludeBytes.length);
+        byte minSection = prelude.read(BYTE), maxSection = prelude.read(BYTE);
+        assertThat(minSection < maxSection, "Invalid section range");
+        int chunkCount = prelude.read(VAR_INT);
+        assertThat(chunkCount >= 0 && chunkCount <= MAX_CHUNKS, "Invalid chunk count");
+
+        int indexOffset = data.getInt(contentStart + length - Integer.BYTES);
+        assertThat(indexOffset >= 0 && indexOffset <= length - Integer.BYTES, "Invalid chunk index offset");
+        byte[] indexBytes = new byte[length - Integer.BYTES - indexOffset];
+        data.get(contentStart + indexOffset, indexBytes);
+        NetworkBuffer index = NetworkBuffer.wrap(indexBytes, 0, indexBytes.length);
+
+        int dictionaryLength = prelude.read(VAR_INT);
+        int dictionaryStart = contentStart + (int) prelude.readIndex();
+        assertThat(dictionaryLength >= 0 && dictionaryStart + dictionaryLength <= contentStart + length, "Invalid dictionary");
+        byte[] dictionaryData = new byte[dictionaryLength];
+        data.get(dictionaryStart, dictionaryData);
+        ZstdDictionary dictionary = dictionaryLength == 0 ? null : new ZstdDictionary(dictionaryData);
+
+        // Only the strings of each group are copied out of the buffer, not the chunks in between.
+        int[] groups = readGroups(index, chunkCount, length);
+        Long2LongMap entries = readIndexEntries(index, chunkCount, length);
+        PolarStringTable strings = new PolarStringTable();
+        for (int i = 0; i < groups.length; i += 2) {
+            byte[] groupBytes = new byte[groups[i + 1]];
+            data.get(contentStart + groups[i], groupBytes);
+            readStrings(NetworkBuffer.wrap(groupBytes, 0, groupBytes.length), strings);
+        }
+
+        return new PolarChunkIndex(this, header.version(), header.compression(), header.chunkFrames(),
+                dictionary, minSection, maxSection, data, contentStart, entries, strings, null);
+    }
+
+    private @NotNull PolarChunkIndex readIndex(@NotNull Header header, byte[] content, int contentStart, int length) {
+        short version = header.version();
+        assertThat(contentStart + length <= content.length, "Truncated world content");
+        NetworkBuffer buffer = NetworkBuffer.wrap(content, contentStart, contentStart + length);
+
+        byte minSection = buffer.read(BYTE), maxSection = buffer.read(BYTE);
+        assertThat(minSection < maxSection, "Invalid section range");
+
+        int chunkCount = buffer.read(VAR_INT);
+        assertThat(chunkCount >= 0 && chunkCount <= MAX_CHUNKS, "Invalid chunk count");
+        Long2LongMap entries;
+        PolarStringTable strings = new PolarStringTable();
+        ZstdDictionary dictionary = null;
+        Long2ObjectMap<PolarChunk> chunks = null;
+        if (version >= PolarWorld.VERSION_CHUNK_INDEX) {
+            dictionary = readDictionary(buffer);
+
+            buffer.readIndex(contentStart + length - Integer.BYTES);
+            int indexOffset = buffer.read(INT);
+            assertThat(indexOffset >= 0 && indexOffset <= length - Integer.BYTES, "Invalid chunk index offset");
+            buffer.readIndex(contentStart + indexOffset);
+            int[] groups = readGroups(buffer, chunkCount, length);
+            entries = readIndexEntries(buffer, chunkCount, length);
+            for (int i = 0; i < groups.length; i += 2) {
+                buffer.readIndex(contentStart + groups[i]);
+                readStrings(buffer, strings);
+            }
+        } else {
+            // Chunks are only found by decoding them, so they are kept rather than decoded again when read.
+            entries = new Long2LongOpenHashMap(chunkCount);
+            chunks = new Long2ObjectOpenHashMap<>(chunkCount);
+            for (int i = 0; i < chunkCount; i++) {
+                int offset = (int) buffer.readIndex() - contentStart;
+                PolarChunk chunk = readChunk(version, buffer, null, maxSection - minSection + 1);
+                int chunkLength = (int) buffer.readIndex() - contentStart - offset;
+                long chunkIndex = CoordConversion.chunkIndex(chunk.x(), chunk.z());
+                entries.put(chunkIndex, PolarChunkIndex.entry(offset, chunkLength));
+                chunks.put(chunkIndex, chunk);
+            }
+        }
+
+        return new PolarChunkIndex(this, version, header.compression(), header.chunkFrames(),
+                dictionary, minSection, maxSection, ByteBuffer.wrap(content), contentStart, entries, strings, chunks);
+    }
+
+    /**
+     * Reads the zstd dictionary following the prelude, or returns null if the world does not have one.
+     */
+    private @Nullable ZstdDictionary readDictionary(@NotNull NetworkBuffer buffer) {
+        byte[] data = buffer.read(BYTE_ARRAY);
+        return data.length == 0 ? null : new ZstdDictionary(data);
+    }
+
+    /**
+     * Reads a list of strings, adding them to the end of the given table.
+     */
+    private void readStrings(@NotNull NetworkBuffer buffer, @NotNull PolarStringTable strings) {
+        int stringCount = buffer.read(VAR_INT);
+        assertThat(stringCount >= 0 && stringCount <= MAX_STRINGS - strings.size(), "Invalid string count");
+        for (int i = 0; i < stringCount; i++) {
+            strings.add(buffer.read(STRING));
+        }
+    }
+
+    /**
+     * Reads the offset and length of the strings in front of each group of chunks, from the start of the index.
+     */
+    private int @NotNull [] readGroups(@NotNull NetworkBuffer buffer, int chunkCount, int length) {
+        int groupCount = buffer.read(VAR_INT);
+        assertThat(groupCount >= 0 && groupCount <= chunkCount, "Invalid chunk group count");
+        int[] groups = new int[groupCount * 2];
+        for (int i = 0; i < groups.length; i += 2) {
+            groups[i] = buffer.read(VAR_INT);
+            groups[i + 1] = buffer.read(VAR_INT);
+            assertThat(groups[i] >= 0 && groups[i + 1] >= 0 && groups[i] + groups[i + 1] <= length, "Invalid chunk group");
+        }
+        return groups;
+    }
+
+    private @NotNull Long2LongMap readIndexEntries(@NotNull NetworkBuffer buffer, int chunkCount, int length) {
+        Long2LongMap entries = new Long2LongOpenHashMap(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            int chunkX = buffer.read(VAR_INT), chunkZ = buffer.read(VAR_INT);
+            int offset = buffer.read(VAR_INT), chunkLength = buffer.read(VAR_INT);
+            assertThat(offset >= 0 && chunkLength >= 0 && offset + chunkLength <= length, "Invalid chunk index entry");
+            entries.put(CoordConversion.chunkIndex(chunkX, chunkZ), PolarChunkIndex.entry(offset, chunkLength));
+        }
+        return entries;
     }
 
-    private @NotNull PolarChunk readChunk(short version, @NotNull NetworkBuffer buffer, int sectionCount) {
+    /**
+     * Decodes a chunk from the form it is stored in, as returned by {@link PolarChunkIndex#encodedChunk(int, int)}.
+     */
+    public @NotNull PolarChunk readChunk(@NotNull EncodedChunk chunk, int sectionCount) {
+        byte[] data = chunk.data();
+        return readChunk(chunk.version(), chunk.frameCompression(), chunk.dictionary(), data, 0, data.length, chunk.strings(), sectionCount);
+    }
+
+    /**
+     * Decodes a single chunk from the given bytes, as located by a {@link PolarChunkIndex}.
+     *
+     * @param frameCompression The compression of the chunk frame, or null if the chunk is not in its own frame
+     * @param dictionary The dictionary the chunk frame was compressed with, if any
+     * @param strings The string table of the world, or null before {@link PolarWorld#VERSION_CHUNK_INDEX}
+     */
+    @NotNull PolarChunk readChunk(
+            short version, @Nullable CompressionType frameCompression, @Nullable ZstdDictionary dictionary,
+            byte[] data, int offset, int length,
+            @Nullable PolarStringTable strings, int sectionCount
+    ) {
+        if (frameCompression != null) {
+            NetworkBuffer frame = NetworkBuffer.wrap(data, offset, offset + length);
+            int uncompressedLength = frame.read(VAR_INT);
+            int frameStart = (int) frame.readIndex();
+            if (frameCompression != CompressionType.NONE) {
+                data = decompress(data, frameStart, offset + length - frameStart, frameCompression, dictionary, uncompressedLength);
+                frameStart = 0;
+            }
+            offset = frameStart;
+            length = uncompressedLength;
+        }
+
+        NetworkBuffer buffer = NetworkBuffer.wrap(data, offset, offset + length);
+        return readChunk(version, buffer, strings, sectionCount);
+    }
+
+    /**
+     * Decompresses a chunk frame, returning the encoded chunk inside it.
+     */
+    byte @NotNull [] readChunkFrame(byte @NotNull [] frame, @NotNull CompressionType compression, @Nullable ZstdDictionary dictionary) {
+        NetworkBuffer buffer = NetworkBuffer.wrap(frame, 0, frame.length);
+        int uncompressedLength = buffer.read(VAR_INT);
+        int frameStart = (int) buffer.readIndex();
+        if (compression == CompressionType.NONE)
+            return Arrays.copyOfRange(frame, frameStart, frame.length);
+        return decompress(frame, frameStart, frame.length - frameStart, compression, dictionary, uncompressedLength);
+    }
+
+    private @NotNull PolarChunk readChunk(short version, @NotNull NetworkBuffer buffer, @Nullable PolarStringTable strings, int sectionCount) {
+        long start = System.nanoTime();
         Integer chunkX = buffer.read(VAR_INT);
         Integer chunkZ = buffer.read(VAR_INT);
 
         PolarSection[] sections = new PolarSection[sectionCount];
         for (int i = 0; i < sectionCount; i++) {
-            sections[i] = readSection(version, buffer);
+            sections[i] = readSection(version, buffer, strings);
         }
 
         int blockEntityCount = buffer.read(VAR_INT);
@@ -82,13 +532,18 @@ public class PolarReader {
             blockEntities.add(blockEntity);
         }
 
-        byte[][] heightmaps = new byte[PolarChunk.HEIGHTMAP_BYTE_SIZE][PolarChunk.HEIGHTMAPS.length];
+        byte[][] heightmaps = new byte[PolarChunk.HEIGHTMAPS.length][];
         int heightmapMask = buffer.read(INT);
         for (int i = 0; i < PolarChunk.HEIGHTMAPS.length; i++) {
             if ((heightmapMask & PolarChunk.HEIGHTMAPS[i]) == 0)
                 continue;
 
-            heightmaps[i] = buffer.read(HEIGHTMAP_SLICE);
+            if (version >= PolarWorld.VERSION_CHUNK_INDEX) {
+                heightmaps[i] = buffer.read(BYTE_ARRAY);
+                assertThat(heightmaps[i].length <= MAX_HEIGHTMAP_SIZE, "Invalid heightmap");
+            } else {
+                heightmaps[i] = buffer.read(HEIGHTMAP_SLICE);
+            }
         }
 
         // Objects
@@ -96,20 +551,22 @@ public class PolarReader {
         if (version > PolarWorld.VERSION_USERDATA_OPT_BLOCK_ENT_NBT)
             userData = buffer.read(BYTE_ARRAY);
 
-        return new PolarChunk(
+        PolarChunk chunk = new PolarChunk(
                 chunkX, chunkZ,
                 sections,
                 blockEntities,
                 heightmaps,
                 userData
         );
+        listener.chunkDecoded(chunkX, chunkZ, System.nanoTime() - start);
+        return chunk;
     }
 
-    private @NotNull PolarSection readSection(short version, @NotNull NetworkBuffer buffer) {
+    private @NotNull PolarSection readSection(short version, @NotNull NetworkBuffer buffer, @Nullable PolarStringTable strings) {
         // If section is empty exit immediately
         if (buffer.read(BOOLEAN)) return new PolarSection();
 
-        String[] blockPalette = buffer.read(STRING.list(MAX_BLOCK_PALETTE_SIZE)).toArray(String[]::new);
+        String[] blockPalette = readPalette(version, buffer, strings, MAX_BLOCK_PALETTE_SIZE);
         if (version <= PolarWorld.VERSION_SHORT_GRASS) {
             for (int i = 0; i < blockPalette.length; i++) {
                 String strippedID = blockPalette[i].split("\\[")[0];
@@ -117,38 +574,72 @@ public class PolarReader {
                     blockPalette[i] = "short_grass";
             }
         }
-        int[] blockData = null;
-        if (blockPalette.length > 1) {
-            blockData = new int[PolarSection.BLOCK_PALETTE_SIZE];
-
-            long[] rawBlockData = buffer.read(LONG_ARRAY);
-            int bitsPerEntry = rawBlockData.length * 64 / PolarSection.BLOCK_PALETTE_SIZE;
-            PaletteUtil.unpack(blockData, rawBlockData, bitsPerEntry);
-        }
+        long[] blockData = null;
+        if (blockPalette.length > 1)
+            blockData = readPaletteData(buffer, PolarSection.BLOCK_PALETTE_SIZE, blockPalette.length, "Invalid block data");
 
-        String[] biomePalette = buffer.read(STRING.list(MAX_BIOME_PALETTE_SIZE)).toArray(String[]::new);
-        int[] biomeData = null;
-        if (biomePalette.length > 1) {
-            biomeData = new int[PolarSection.BIOME_PALETTE_SIZE];
-
-            long[] rawBiomeData = buffer.read(LONG_ARRAY);
-            int bitsPerEntry = rawBiomeData.length * 64 / PolarSection.BIOME_PALETTE_SIZE;
-            PaletteUtil.unpack(biomeData, rawBiomeData, bitsPerEntry);
-        }
+        String[] biomePalette = readPalette(version, buffer, strings, MAX_BIOME_PALETTE_SIZE);
+        long[] biomeData = null;
+        if (biomePalette.length > 1)
+            biomeData = readPaletteData(buffer, PolarSection.BIOME_PALETTE_SIZE, biomePalette.length, "Invalid biome data");
 
         byte[] blockLight = null, skyLight = null;
 
-        if (version > PolarWorld.VERSION_UNIFIED_LIGHT) {
+        if (version >= PolarWorld.VERSION_CHUNK_INDEX) {
+            blockLight = readLight(buffer);
+            skyLight = readLight(buffer);
+        } else if (version > PolarWorld.VERSION_UNIFIED_LIGHT) {
             if (buffer.read(BOOLEAN))
-                blockLight = buffer.read(LIGHT_DATA);
+                blockLight = LightUtil.share(buffer.read(LIGHT_DATA));
             if (buffer.read(BOOLEAN))
-                skyLight = buffer.read(LIGHT_DATA);
+                skyLight = LightUtil.share(buffer.read(LIGHT_DATA));
         } else if (buffer.read(BOOLEAN)) {
-            blockLight = buffer.read(LIGHT_DATA);
-            skyLight = buffer.read(LIGHT_DATA);
+            blockLight = LightUtil.share(buffer.read(LIGHT_DATA));
+            skyLight = LightUtil.share(buffer.read(LIGHT_DATA));
         }
 
-        return new PolarSection(blockPalette, blockData, biomePalette, biomeData, blockLight, skyLight);
+        return PolarSection.packed(blockPalette, blockData, biomePalette, biomeData, blockLight, skyLight);
+    }
+
+    private static byte @Nullable [] readLight(@NotNull NetworkBuffer buffer) {
+        return switch (buffer.read(BYTE)) {
+            case PolarSection.LIGHT_MISSING -> null;
+            case PolarSection.LIGHT_FULL -> LightUtil.share(buffer.read(LIGHT_DATA));
+            case PolarSection.LIGHT_UNIFORM -> {
+                byte level = buffer.read(BYTE);
+                assertThat(level >= 0 && level < 16, "Invalid light level");
+                yield LightUtil.uniform(level);
+            }
+            default -> throw new Error("Invalid light encoding");
+        };
+    }
+
+    /**
+     * Reads packed palette data, which is kept packed until the section is loaded. The width of the entries
+     * depends on the palette size only, it cannot be derived from the length of the data since entries do not
+     * span longs.
+     */
+    private static long @NotNull [] readPaletteData(@NotNull NetworkBuffer buffer, int size, int paletteSize, @NotNull String message) {
+        long[] data = buffer.read(LONG_ARRAY);
+        int intsPerLong = 64 / PaletteUtil.bitsPerEntry(paletteSize);
+        assertThat(data.length == (size + intsPerLong - 1) / intsPerLong, message);
+        return data;
+    }
+
+    private String @NotNull [] readPalette(short version, @NotNull NetworkBuffer buffer, @Nullable PolarStringTable strings, int maxSize) {
+        if (version < PolarWorld.VERSION_CHUNK_INDEX)
+            return buffer.read(STRING.list(maxSize)).toArray(String[]::new);
+
+        assert strings != null;
+        int size = buffer.read(VAR_INT);
+        assertThat(size >= 0 && size <= maxSize, "Invalid palette size");
+        String[] palette = new String[size];
+        for (int i = 0; i < size; i++) {
+            int index = buffer.read(VAR_INT);
+            assertThat(index >= 0 && index < strings.size(), "Invalid string index");
+            palette[i] = strings.get(index);
+        }
+        return palette;
     }
 
     private @NotNull PolarChunk.BlockEntity readBlockEntity(int version, @NotNull NetworkBuffer buffer) {
@@ -172,6 +663,101 @@ public class PolarReader {
         );
     }
 
+    private void reportWorldRead(long bytes, @NotNull PolarWorld world, long start) {
+        // Counting the chunks of a world is not free, so it is skipped when nobody is listening.
+        if (listener == PolarListener.NONE) return;
+        listener.worldRead(bytes, world.chunkIndices().size(), System.nanoTime() - start);
+    }
+
+    /**
+     * Counts the bytes read from a stream, which is read through a buffer so this is not called for every byte.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        CountingInputStream(@NotNull InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = in.read();
+            if (value != -1) count++;
+            return value;
+        }
+
+        @Override
+        public int read(byte @NotNull [] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    private record Header(short version, @NotNull CompressionType compression, boolean chunkFrames, int length) {
+    }
+
+    private @NotNull Header readHeader(@NotNull NetworkBuffer buffer) {
+        Integer magicNumber = buffer.read(INT);
+        assertThat(magicNumber == PolarFormat.MAGIC_NUMBER, "Invalid magic number");
+
+        short version = buffer.read(SHORT);
+        validateVersion(version);
+
+        CompressionType compression = CompressionType.fromId(buffer.read(BYTE));
+        assertThat(compression != null, "Invalid compression type");
+        boolean chunkFrames = version >= PolarWorld.VERSION_CHUNK_INDEX && buffer.read(BOOLEAN);
+        int length = buffer.read(VAR_INT);
+
+        return new Header(version, compression, chunkFrames, length);
+    }
+
+    private @NotNull Header readHeader(@NotNull InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        assertThat(data.readInt() == PolarFormat.MAGIC_NUMBER, "Invalid magic number");
+
+        short version = data.readShort();
+        validateVersion(version);
+
+        CompressionType compression = CompressionType.fromId(data.readByte());
+        assertThat(compression != null, "Invalid compression type");
+        boolean chunkFrames = version >= PolarWorld.VERSION_CHUNK_INDEX && data.readBoolean();
+        int length = readVarInt(in);
+
+        return new Header(version, compression, chunkFrames, length);
+    }
+
+    private static byte @NotNull [] readRecord(@NotNull InputStream in) throws IOException {
+        int length = readVarInt(in);
+        assertThat(length >= 0, "Invalid record length");
+        byte[] record = in.readNBytes(length);
+        assertThat(record.length == length, "Truncated record");
+        return record;
+    }
+
+    private static byte readByte(@NotNull InputStream in) throws IOException {
+        int value = in.read();
+        if (value == -1) throw new EOFException();
+        return (byte) value;
+    }
+
+    private static int readVarInt(@NotNull InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = readByte(in);
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new Error("VarInt is too big");
+    }
+
     private void validateVersion(int version) {
         String invalidVersionError = String.format("Unsupported Polar version. Up to %d is supported, found %d.",
                 PolarWorld.LATEST_VERSION, version);
@@ -181,8 +767,8 @@ public class PolarReader {
     private @NotNull NetworkBuffer decompressBuffer(@NotNull NetworkBuffer buffer, @NotNull CompressionType compression, int length) {
         return switch (compression) {
             case NONE -> buffer;
-            case ZSTD -> {
-                byte[] bytes = Zstd.decompress(buffer.read(RAW_BYTES), length);
+            case ZSTD, LZ4 -> {
+                byte[] bytes = decompress(buffer.read(RAW_BYTES), compression, length);
                 NetworkBuffer newBuffer = NetworkBuffer.wrap(bytes, 0, 0);
                 newBuffer.writeIndex(bytes.length);
                 yield newBuffer;
@@ -190,6 +776,90 @@ public class PolarReader {
         };
     }
 
+    private byte @NotNull [] decompress(byte @NotNull [] data, @NotNull CompressionType compression, int length) {
+        long start = System.nanoTime();
+        byte[] result = decompressArray(data, compression, length);
+        listener.decompressed(compression, data.length, result.length, System.nanoTime() - start);
+        return result;
+    }
+
+    private byte @NotNull [] decompressArray(byte @NotNull [] data, @NotNull CompressionType compression, int length) {
+        // Streamed worlds do not know their content length, see PolarWriter#write(PolarWorld, OutputStream).
+        if (length == 0) return decompressStream(data, compression);
+
+        return switch (compression) {
+            case NONE -> data;
+            case ZSTD -> Zstd.decompress(data, length);
+            case LZ4 -> {
+                byte[] result = decompressStream(data, compression);
+                assertThat(result.length == length, "Invalid compressed content");
+                yield result;
+            }
+        };
+    }
+
+    private byte @NotNull [] decompressStream(byte @NotNull [] data, @NotNull CompressionType compression) {
+        try (InputStream stream = decompressStream(new ByteArrayInputStream(data), compression)) {
+            return stream.readAllBytes();
+        } catch (IOException e) {
+            throw new Error("Invalid compressed content: " + e.getMessage());
+        }
+    }
+
+    private @NotNull InputStream decompressContent(@NotNull InputStream in, @NotNull Header header) throws IOException {
+        // The returned stream is closed to release the decompressor, which must not close the given stream.
+        InputStream content = new FilterInputStream(in) {
+            @Override
+            public void close() {
+            }
+        };
+        // Chunk frames are decompressed one by one, the rest of the content is not compressed.
+        return header.chunkFrames() ? content : decompressStream(content, header.compression());
+    }
+
+    private @NotNull InputStream decompressStream(@NotNull InputStream in, @NotNull CompressionType compression) throws IOException {
+        return switch (compression) {
+            case NONE -> in;
+            case ZSTD -> new ZstdInputStream(in);
+            case LZ4 -> new LZ4FrameInputStream(in);
+        };
+    }
+
+    private byte @NotNull [] decompress(
+            byte @NotNull [] data, int offset, int length, @NotNull CompressionType compression,
+            @Nullable ZstdDictionary dictionary, int uncompressedLength
+    ) {
+        long start = System.nanoTime();
+        byte[] result = new byte[uncompressedLength];
+        switch (compression) {
+            case NONE -> System.arraycopy(data, offset, result, 0, length);
+            case ZSTD -> {
+                long size;
+                try {
+                    size = dictionary != null
+                            ? dictionary.decompress(result, data, offset, length)
+                            : Zstd.decompressByteArray(result, 0, uncompressedLength, data, offset, length);
+                } catch (ZstdException e) {
+                    // Also thrown for frames compressed with a dictionary, when decompressed without it.
+                    throw new Error("Invalid chunk frame");
+                }
+                assertThat(!Zstd.isError(size) && size == uncompressedLength, "Invalid chunk frame");
+            }
+            case LZ4 -> {
+                int size;
+                try {
+                    size = LZ4Factory.fastestInstance().safeDecompressor()
+                            .decompress(data, offset, length, result, 0, uncompressedLength);
+                } catch (LZ4Exception e) {
+                    throw new Error("Invalid chunk frame");
+                }
+                assertThat(size == uncompressedLength, "Invalid chunk frame");
+            }
+        }
+        listener.decompressed(compression, length, uncompressedLength, System.nanoTime() - start);
+        return result;
+    }
+
     /**
      * Minecraft (so Minestom) had a breaking change in NBT reading in 1.20.2. This method replicates the old
      * behavior which we use for any Polar version less than {@link PolarWorld#VERSION_MINESTOM_NBT_READ_BREAK}.
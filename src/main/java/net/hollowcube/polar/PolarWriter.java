@@ -1,63 +1,495 @@
 package net.hollowcube.polar;
 
 import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.github.luben.zstd.ZstdOutputStream;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import net.jpountz.xxhash.XXHashFactory;
+import it.unimi.dsi.fastutil.longs.LongList;
+import net.hollowcube.polar.model.EncodedChunk;
 import net.hollowcube.polar.model.PolarChunk;
 import net.hollowcube.polar.model.PolarSection;
+import net.hollowcube.polar.model.PolarStringTable;
 import net.hollowcube.polar.model.PolarWorld;
-import net.hollowcube.polar.util.PaletteUtil;
+import net.hollowcube.polar.util.LightUtil;
 import net.minestom.server.coordinate.CoordConversion;
 import net.minestom.server.instance.Chunk;
 import net.minestom.server.network.NetworkBuffer;
 import net.minestom.server.utils.chunk.ChunkUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 import static net.minestom.server.network.NetworkBuffer.*;
 
 @SuppressWarnings("UnstableApiUsage")
 public class PolarWriter {
-    protected PolarWriter() {}
+    private static final int STREAM_BATCH_SIZE = 256;
+    private static final int MAX_TRAINING_SIZE = 128 * 1024 * 1024;
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private final PolarListener listener;
+
+    protected PolarWriter() {
+        this(PolarListener.NONE);
+    }
+
+    protected PolarWriter(@NotNull PolarListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns a writer which reports to the given listener.
+     */
+    public @NotNull PolarWriter withListener(@NotNull PolarListener listener) {
+        return new PolarWriter(listener);
+    }
+
+    public @NotNull PolarListener listener() {
+        return listener;
+    }
 
     public byte[] write(@NotNull PolarWorld world) {
+        return write(world, (ForkJoinPool) null);
+    }
+
+    /**
+     * Writes the world, encoding (and compressing, with chunk frames) chunks in parallel on the given pool.
+     * The strings of each batch of chunks are added to the string table in chunk order before the chunks are
+     * encoded, and chunks are encoded into separate buffers and joined in order, so the output is identical to
+     * {@link #write(PolarWorld)}.
+     * <p>
+     * The world keeps the encoded form of every chunk written, so following writes only encode the chunks
+     * which were updated in the meantime, see {@link PolarWorld#isDirty(int, int)}.
+     */
+    public byte[] write(@NotNull PolarWorld world, @Nullable ForkJoinPool pool) {
+        long start = System.nanoTime();
+        CompressionType compression = world.compression();
+        boolean chunkFrames = world.chunkFrames();
+        LongList chunkIndices = world.chunkIndices();
+
         // Write the compressed content first
-        byte[] contentBytes = makeArray(content -> {
-            content.write(BYTE, world.minSection());
-            content.write(BYTE, world.maxSection());
-
-            Collection<PolarChunk> chunks = world.chunks();
-            content.write(VAR_INT, chunks.size());
-            for (PolarChunk chunk : chunks) {
-                writeChunk(content, chunk);
-            }
-        });
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try {
+            writeContent(world, compression, chunkFrames, chunkIndices, content, pool);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] contentBytes = content.toByteArray();
+
+        // Chunk frames are already compressed, the rest of the content is left as is.
+        byte[] compressedBytes = contentBytes;
+        if (!chunkFrames && compression != CompressionType.NONE) {
+            long compressStart = System.nanoTime();
+            compressedBytes = compress(contentBytes, compression, world.compressionLevel());
+            listener.compressed(compression, contentBytes.length, compressedBytes.length, System.nanoTime() - compressStart);
+        }
 
         // Create final buffer
-        return NetworkBuffer.makeArray(buffer -> {
+        byte[] compressedContent = compressedBytes;
+        byte[] worldBytes = NetworkBuffer.makeArray(buffer -> {
             buffer.write(INT, PolarFormat.MAGIC_NUMBER);
             buffer.write(SHORT, PolarWorld.LATEST_VERSION);
-            buffer.write(BYTE, (byte) world.compression().ordinal());
-            switch (world.compression()) {
-                case NONE -> {
-                    buffer.write(VAR_INT, contentBytes.length);
-                    buffer.write(RAW_BYTES, contentBytes);
-                }
-                case ZSTD -> {
-                    buffer.write(VAR_INT, contentBytes.length);
-                    buffer.write(RAW_BYTES, Zstd.compress(contentBytes));
+            buffer.write(BYTE, (byte) compression.ordinal());
+            buffer.write(BOOLEAN, chunkFrames);
+            buffer.write(VAR_INT, contentBytes.length);
+            buffer.write(RAW_BYTES, compressedContent);
+        });
+        listener.worldWritten(worldBytes.length, chunkIndices.size(), System.nanoTime() - start);
+        return worldBytes;
+    }
+
+    /**
+     * Streams the world to the given output, without building the whole world in memory. Chunks are encoded and
+     * compressed in batches, so memory use is bounded by the batch size rather than the size of the world.
+     * <p>
+     * The output stream is not closed.
+     */
+    public void write(@NotNull PolarWorld world, @NotNull OutputStream out) throws IOException {
+        write(world, out, null);
+    }
+
+    /**
+     * Streams the world to the given output, encoding each batch of chunks in parallel on the given pool.
+     * The output stream is not closed.
+     *
+     * @see #write(PolarWorld, OutputStream)
+     */
+    public void write(@NotNull PolarWorld world, @NotNull OutputStream out, @Nullable ForkJoinPool pool) throws IOException {
+        long start = System.nanoTime();
+        CompressionType compression = world.compression();
+        boolean chunkFrames = world.chunkFrames();
+        CountingOutputStream counted = new CountingOutputStream(out);
+        out = counted;
+
+        out.write(makeArray(buffer -> {
+            buffer.write(INT, PolarFormat.MAGIC_NUMBER);
+            buffer.write(SHORT, PolarWorld.LATEST_VERSION);
+            buffer.write(BYTE, (byte) compression.ordinal());
+            buffer.write(BOOLEAN, chunkFrames);
+            // The content length is not known up front, zero marks content which runs to the end of the stream.
+            buffer.write(VAR_INT, 0);
+        }));
+
+        // Chunk frames are compressed one by one, otherwise the whole content is a single compressed stream.
+        OutputStream content = chunkFrames ? out : compressStream(out, compression, world.compressionLevel());
+        LongList chunkIndices = world.chunkIndices();
+        try {
+            writeContent(world, compression, chunkFrames, chunkIndices, content, pool);
+        } finally {
+            if (content != out) content.close();
+        }
+        listener.worldWritten(counted.count, chunkIndices.size(), System.nanoTime() - start);
+    }
+
+    /**
+     * Streams the world to the given channel. The channel is not closed.
+     *
+     * @see #write(PolarWorld, OutputStream, ForkJoinPool)
+     */
+    public void write(@NotNull PolarWorld world, @NotNull WritableByteChannel channel, @Nullable ForkJoinPool pool) throws IOException {
+        OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), STREAM_BUFFER_SIZE);
+        write(world, out, pool);
+        out.flush();
+    }
+
+    /**
+     * Writes the content of the world, which follows the header. Chunks are written in groups of up to
+     * {@link #STREAM_BATCH_SIZE}, each starting with the strings its chunks added to the string table, so that
+     * a reader can decode the chunks of a group as soon as it was read.
+     */
+    private void writeContent(
+            @NotNull PolarWorld world, @NotNull CompressionType compression, boolean chunkFrames,
+            @NotNull LongList chunkIndices, @NotNull OutputStream content, @Nullable ForkJoinPool pool
+    ) throws IOException {
+        CompressionType frameCompression = chunkFrames ? compression : null;
+        ZstdDictionary dictionary = dictionary(world, compression);
+        ZstdDictionary frameDictionary = frameCompression == null ? null : dictionary;
+        PolarStringTable strings = world.stringsForWrite();
+
+        byte[] prelude = makeArray(buffer -> {
+            buffer.write(BYTE, world.minSection());
+            buffer.write(BYTE, world.maxSection());
+            buffer.write(VAR_INT, chunkIndices.size());
+            // The dictionary comes first, so that it is known before any chunk frame is decompressed.
+            buffer.write(BYTE_ARRAY, dictionary == null ? new byte[0] : dictionary.rawData());
+        });
+        content.write(prelude);
+        int offset = prelude.length;
+
+        // Each chunk is length prefixed, and an index of group and chunk offsets is written after the last chunk
+        // so that readers can locate a single chunk without walking all the others.
+        int groupCount = (chunkIndices.size() + STREAM_BATCH_SIZE - 1) / STREAM_BATCH_SIZE;
+        int[] groups = new int[groupCount * 2];
+        int[] index = new int[chunkIndices.size() * 4];
+        int writtenStrings = 0;
+        for (int group = 0; group < groupCount; group++) {
+            int from = group * STREAM_BATCH_SIZE, to = Math.min(from + STREAM_BATCH_SIZE, chunkIndices.size());
+            byte[][] records = writeChunkRecords(world, strings, chunkIndices, from, to,
+                    frameCompression, frameDictionary, pool);
+
+            // Every string the records may refer to is in the table by now. Only the strings added since the
+            // previous group are read, rather than copying the whole table for each group.
+            int firstString = writtenStrings, tableSize = strings.size();
+            byte[] groupStrings = makeArray(buffer -> {
+                buffer.write(VAR_INT, tableSize - firstString);
+                for (int i = firstString; i < tableSize; i++) {
+                    buffer.write(STRING, strings.get(i));
                 }
+                buffer.write(VAR_INT, records.length);
+            });
+            writtenStrings = tableSize;
+            groups[group * 2] = offset;
+            groups[group * 2 + 1] = groupStrings.length;
+            content.write(groupStrings);
+            offset += groupStrings.length;
+
+            for (int i = 0; i < records.length; i++) {
+                byte[] record = records[i];
+                byte[] length = makeArray(buffer -> buffer.write(VAR_INT, record.length));
+                content.write(length);
+                offset += length.length;
+
+                int entry = (from + i) * 4;
+                index[entry] = CoordConversion.chunkIndexGetX(chunkIndices.getLong(from + i));
+                index[entry + 1] = CoordConversion.chunkIndexGetZ(chunkIndices.getLong(from + i));
+                index[entry + 2] = offset;
+                index[entry + 3] = record.length;
+                content.write(record);
+                offset += record.length;
+            }
+        }
+
+        int indexOffset = offset;
+        content.write(makeArray(buffer -> {
+            buffer.write(VAR_INT, groupCount);
+            for (int entry : groups) {
+                buffer.write(VAR_INT, entry);
+            }
+            for (int entry : index) {
+                buffer.write(VAR_INT, entry);
             }
+            buffer.write(INT, indexOffset);
+        }));
+        world.stringsWritten(strings);
+    }
+
+    /**
+     * Writes the records of the given chunks of the world, in order, as they would appear in a written world.
+     * Chunks which are not dirty are reused from their encoded form. Chunks are encoded with the
+     * {@link PolarWorld#strings()} of the world, which the caller must store along with the records.
+     *
+     * @param chunkIndices The {@link CoordConversion#chunkIndex(int, int)} of each chunk to write
+     * @param frameCompression The compression of the chunk frames, or null to write the plain encoded chunks.
+     *                         Zstd frames use the {@link PolarWorld#zstdDictionary()} of the world.
+     * @param pool The pool to encode chunks on, or null to encode plain chunks on the calling thread
+     */
+    public byte @NotNull [] @NotNull [] writeChunks(
+            @NotNull PolarWorld world, @NotNull LongList chunkIndices,
+            @Nullable CompressionType frameCompression, @Nullable ForkJoinPool pool
+    ) {
+        ZstdDictionary dictionary = frameCompression == null ? null : dictionary(world, frameCompression);
+        return writeChunkRecords(world, world.strings(), chunkIndices, 0, chunkIndices.size(),
+                frameCompression, dictionary, pool);
+    }
+
+    /**
+     * Trains a zstd dictionary on the chunks of the given worlds, for {@link PolarWorld#setZstdDictionary}.
+     * The worlds should be similar to the worlds the dictionary will be used with, typically the world itself or
+     * other maps of the same game. Every chunk is encoded, so this is about as expensive as writing the worlds.
+     *
+     * @param size The maximum size of the dictionary in bytes, see {@link ZstdDictionary#DEFAULT_SIZE}
+     * @throws com.github.luben.zstd.ZstdException If there are too few chunks to train a dictionary
+     */
+    public @NotNull ZstdDictionary trainDictionary(@NotNull Collection<PolarWorld> worlds, int size) {
+        // zstd recommends around a hundred times the dictionary size in samples, more only slows training down.
+        ZstdDictTrainer trainer = new ZstdDictTrainer(Math.min(MAX_TRAINING_SIZE, size * 100), size);
+        for (PolarWorld world : worlds) {
+            // Samples are encoded as they would be written, without adding their strings to the world's own table.
+            PolarStringTable strings = new PolarStringTable();
+            for (PolarChunk chunk : world.chunks()) {
+                byte[] chunkBytes = makeArray(buffer -> writeChunk(buffer, chunk, strings));
+                if (!trainer.addSample(chunkBytes)) break;
+            }
+        }
+        return new ZstdDictionary(trainer.trainSamples());
+    }
+
+    private byte @NotNull [] @NotNull [] writeChunkRecords(
+            @NotNull PolarWorld world, @NotNull PolarStringTable strings,
+            @NotNull LongList chunkIndices, int from, int to,
+            @Nullable CompressionType frameCompression, @Nullable ZstdDictionary dictionary, @Nullable ForkJoinPool pool
+    ) {
+        // Every frame is compressed independently, so they are always built in parallel.
+        if (pool == null && frameCompression != null) pool = ForkJoinPool.commonPool();
+
+        // Chunks which were not updated since they were read or last written are reused from their encoded form,
+        // as long as it refers to the same string table. Every other chunk is encoded again.
+        int count = to - from;
+        EncodedChunk[] encoded = new EncodedChunk[count];
+        PolarChunk[] chunks = new PolarChunk[count];
+        for (int i = 0; i < count; i++) {
+            long chunkIndex = chunkIndices.getLong(from + i);
+            EncodedChunk chunk = world.encodedChunkAt(CoordConversion.chunkIndexGetX(chunkIndex), CoordConversion.chunkIndexGetZ(chunkIndex));
+            if (chunk != null && chunk.version() == PolarWorld.LATEST_VERSION && chunk.strings() == strings)
+                encoded[i] = chunk;
+        }
+        forEach(pool, count, i -> {
+            if (encoded[i] != null) return;
+            long chunkIndex = chunkIndices.getLong(from + i);
+            chunks[i] = world.chunkAt(CoordConversion.chunkIndexGetX(chunkIndex), CoordConversion.chunkIndexGetZ(chunkIndex));
+            assert chunks[i] != null : "chunk removed from world while writing";
         });
+
+        // Strings are added in chunk order before encoding, so the table does not depend on the order chunks
+        // happen to be encoded in.
+        for (PolarChunk chunk : chunks) {
+            if (chunk != null) addStrings(chunk, strings);
+        }
+
+        byte[][] records = new byte[count][];
+        forEach(pool, count, i -> {
+            long chunkIndex = chunkIndices.getLong(from + i);
+            int x = CoordConversion.chunkIndexGetX(chunkIndex), z = CoordConversion.chunkIndexGetZ(chunkIndex);
+            records[i] = encoded[i] != null
+                    ? writeChunkRecord(world, x, z, encoded[i], frameCompression, dictionary)
+                    : writeChunkRecord(world, x, z, chunks[i], strings, frameCompression, dictionary);
+        });
+        return records;
+    }
+
+    private static void forEach(@Nullable ForkJoinPool pool, int count, @NotNull IntConsumer action) {
+        if (pool == null) {
+            for (int i = 0; i < count; i++)
+                action.accept(i);
+        } else {
+            // Running the parallel stream from inside the pool keeps its tasks on that pool.
+            pool.submit(() -> IntStream.range(0, count).parallel().forEach(action)).join();
+        }
+    }
+
+    private static void addStrings(@NotNull PolarChunk chunk, @NotNull PolarStringTable strings) {
+        for (PolarSection section : chunk.sections()) {
+            if (section.isEmpty()) continue;
+            for (String value : section.blockPalette()) strings.indexOf(value);
+            for (String value : section.biomePalette()) strings.indexOf(value);
+        }
+    }
+
+    /**
+     * Returns the record of a chunk which was not updated since it was read or last written, converting its
+     * encoded form only if it was compressed differently.
+     */
+    private byte @NotNull [] writeChunkRecord(
+            @NotNull PolarWorld world, int x, int z, @NotNull EncodedChunk encoded,
+            @Nullable CompressionType frameCompression, @Nullable ZstdDictionary dictionary
+    ) {
+        if (encoded.frameCompression() == frameCompression && encoded.dictionary() == dictionary) {
+            // Chunks evicted from a bounded world are encoded while still dirty, writing them makes them clean.
+            if (world.isDirty(x, z)) world.cacheEncodedChunk(x, z, encoded, encoded);
+            return encoded.data();
+        }
+
+        // Only the compression differs, the chunk itself does not need to be encoded again.
+        byte[] chunkBytes = encoded.frameCompression() == null ? encoded.data()
+                : PolarFormat.READER.readChunkFrame(encoded.data(), encoded.frameCompression(), encoded.dictionary());
+        byte[] record = frameCompression == null ? chunkBytes
+                : writeChunkFrame(chunkBytes, frameCompression, world.compressionLevel(), dictionary);
+        world.cacheEncodedChunk(x, z, encoded, new EncodedChunk(PolarWorld.LATEST_VERSION, frameCompression,
+                dictionary, encoded.strings(), record));
+        return record;
+    }
+
+    /**
+     * Returns the record of a chunk which is encoded again, because it was updated or its encoded form refers
+     * to another string table or format version.
+     */
+    private byte @NotNull [] writeChunkRecord(
+            @NotNull PolarWorld world, int x, int z, @NotNull PolarChunk chunk, @NotNull PolarStringTable strings,
+            @Nullable CompressionType frameCompression, @Nullable ZstdDictionary dictionary
+    ) {
+        EncodedChunk record = encodeChunk(world, chunk, strings, frameCompression, dictionary);
+        world.cacheEncodedChunk(x, z, chunk, record);
+        return record.data();
+    }
+
+    /**
+     * Encodes a single chunk of the world, in the form it would be written with the given frame compression,
+     * without recording it in the world. Zstd frames use the {@link PolarWorld#zstdDictionary()} of the world.
+     */
+    public @NotNull EncodedChunk encodeChunk(
+            @NotNull PolarWorld world, @NotNull PolarChunk chunk, @Nullable CompressionType frameCompression
+    ) {
+        ZstdDictionary dictionary = frameCompression == null ? null : dictionary(world, frameCompression);
+        return encodeChunk(world, chunk, world.strings(), frameCompression, dictionary);
+    }
+
+    private @NotNull EncodedChunk encodeChunk(
+            @NotNull PolarWorld world, @NotNull PolarChunk chunk, @NotNull PolarStringTable strings,
+            @Nullable CompressionType frameCompression, @Nullable ZstdDictionary dictionary
+    ) {
+        long start = System.nanoTime();
+        byte[] chunkBytes = makeArray(buffer -> writeChunk(buffer, chunk, strings));
+        listener.chunkEncoded(chunk.x(), chunk.z(), chunkBytes.length, System.nanoTime() - start);
+        byte[] record = frameCompression == null ? chunkBytes
+                : writeChunkFrame(chunkBytes, frameCompression, world.compressionLevel(), dictionary);
+        return new EncodedChunk(PolarWorld.LATEST_VERSION, frameCompression, dictionary, strings, record);
+    }
+
+    /**
+     * Returns the dictionary used with the given compression, which is only ever zstd.
+     */
+    private static @Nullable ZstdDictionary dictionary(@NotNull PolarWorld world, @NotNull CompressionType compression) {
+        return compression == CompressionType.ZSTD ? world.zstdDictionary() : null;
+    }
+
+    private byte @NotNull [] writeChunkFrame(
+            byte @NotNull [] chunkBytes, @NotNull CompressionType compression, int level,
+            @Nullable ZstdDictionary dictionary
+    ) {
+        long start = System.nanoTime();
+        byte[] frame;
+        if (dictionary != null) frame = dictionary.compress(chunkBytes, level);
+        // The uncompressed length is written before the frame, so lz4 frames are raw blocks without the lz4 frame
+        // format, which would add more than the size of a small chunk.
+        else if (compression == CompressionType.LZ4) frame = lz4Compressor(level).compress(chunkBytes);
+        else frame = compress(chunkBytes, compression, level);
+        if (compression != CompressionType.NONE)
+            listener.compressed(compression, chunkBytes.length, frame.length, System.nanoTime() - start);
+        return makeArray(buffer -> {
+            buffer.write(VAR_INT, chunkBytes.length);
+            buffer.write(RAW_BYTES, frame);
+        });
+    }
+
+    private @NotNull OutputStream compressStream(
+            @NotNull OutputStream out, @NotNull CompressionType compression, int level
+    ) throws IOException {
+        // The compression stream is closed to end the compressed content, which must not close the target.
+        OutputStream target = new FilterOutputStream(out) {
+            @Override
+            public void write(byte @NotNull [] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        return switch (compression) {
+            case NONE -> target;
+            case ZSTD -> new ZstdOutputStream(target, level == 0 ? Zstd.defaultCompressionLevel() : level);
+            // Independent blocks, so the reader does not need to keep the previous block around.
+            case LZ4 -> new LZ4FrameOutputStream(target, LZ4FrameOutputStream.BLOCKSIZE.SIZE_64KB, -1L,
+                    lz4Compressor(level), XXHashFactory.fastestInstance().hash32(),
+                    LZ4FrameOutputStream.FLG.Bits.BLOCK_INDEPENDENCE);
+        };
+    }
+
+    private byte @NotNull [] compress(byte @NotNull [] data, @NotNull CompressionType compression, int level) {
+        return switch (compression) {
+            case NONE -> data;
+            case ZSTD -> Zstd.compress(data, level == 0 ? Zstd.defaultCompressionLevel() : level);
+            // Same format as the streamed content, so it can be read either way.
+            case LZ4 -> {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+                try (OutputStream stream = compressStream(out, compression, level)) {
+                    stream.write(data);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                yield out.toByteArray();
+            }
+        };
+    }
+
+    private static @NotNull LZ4Compressor lz4Compressor(int level) {
+        LZ4Factory factory = LZ4Factory.fastestInstance();
+        return level <= 0 ? factory.fastCompressor() : factory.highCompressor(level);
     }
 
-    private void writeChunk(@NotNull NetworkBuffer buffer, @NotNull PolarChunk chunk) {
+    private void writeChunk(@NotNull NetworkBuffer buffer, @NotNull PolarChunk chunk, @NotNull PolarStringTable strings) {
         buffer.write(VAR_INT, chunk.x());
         buffer.write(VAR_INT, chunk.z());
 
         for (PolarSection section : chunk.sections()) {
-            writeSection(buffer, section);
+            writeSection(buffer, section, strings);
         }
 
         buffer.write(VAR_INT, chunk.blockEntities().size());
@@ -65,43 +497,62 @@ public class PolarWriter {
             writeBlockEntity(buffer, blockEntity);
         }
 
-        //todo heightmaps
-        buffer.write(INT, PolarChunk.HEIGHTMAP_NONE);
+        int heightmapMask = PolarChunk.HEIGHTMAP_NONE;
+        for (int i = 0; i < PolarChunk.HEIGHTMAPS.length; i++) {
+            if (chunk.heightmap(i) != null)
+                heightmapMask |= PolarChunk.HEIGHTMAPS[i];
+        }
+        buffer.write(INT, heightmapMask);
+        for (int i = 0; i < PolarChunk.HEIGHTMAPS.length; i++) {
+            if ((heightmapMask & PolarChunk.HEIGHTMAPS[i]) != 0)
+                buffer.write(BYTE_ARRAY, chunk.heightmap(i));
+        }
 
         buffer.write(BYTE_ARRAY, chunk.userData());
     }
 
-    private void writeSection(@NotNull NetworkBuffer buffer, @NotNull PolarSection section) {
+    private void writeSection(@NotNull NetworkBuffer buffer, @NotNull PolarSection section, @NotNull PolarStringTable strings) {
         buffer.write(BOOLEAN, section.isEmpty());
         if (section.isEmpty()) return;
 
         // Blocks
         String[] blockPalette = section.blockPalette();
-        buffer.write(STRING.list(), Arrays.asList(blockPalette));
-        if (blockPalette.length > 1) {
-            int[] blockData = section.blockData();
-            int bitsPerEntry = (int) Math.ceil(Math.log(blockPalette.length) / Math.log(2));
-            if (bitsPerEntry < 1) bitsPerEntry = 1;
-            buffer.write(LONG_ARRAY, PaletteUtil.pack(blockData, bitsPerEntry));
-        }
+        writePalette(buffer, blockPalette, strings);
+        if (blockPalette.length > 1)
+            buffer.write(LONG_ARRAY, section.packedBlockData());
 
         // Biomes
         String[] biomePalette = section.biomePalette();
-        buffer.write(STRING.list(), Arrays.asList(biomePalette));
-        if (biomePalette.length > 1) {
-            int[] biomeData = section.biomeData();
-            int bitsPerEntry = (int) Math.ceil(Math.log(biomePalette.length) / Math.log(2));
-            if (bitsPerEntry < 1) bitsPerEntry = 1;
-            buffer.write(LONG_ARRAY, PaletteUtil.pack(biomeData, bitsPerEntry));
-        }
+        writePalette(buffer, biomePalette, strings);
+        if (biomePalette.length > 1)
+            buffer.write(LONG_ARRAY, section.packedBiomeData());
 
         // Light
-        buffer.write(BOOLEAN, section.hasBlockLightData());
-        if (section.hasBlockLightData())
-            buffer.write(RAW_BYTES, section.blockLight());
-        buffer.write(BOOLEAN, section.hasSkyLightData());
-        if (section.hasSkyLightData())
-            buffer.write(RAW_BYTES, section.skyLight());
+        writeLight(buffer, section.hasBlockLightData() ? section.blockLight() : null);
+        writeLight(buffer, section.hasSkyLightData() ? section.skyLight() : null);
+    }
+
+    private void writeLight(@NotNull NetworkBuffer buffer, byte @Nullable [] light) {
+        if (light == null) {
+            buffer.write(BYTE, (byte) PolarSection.LIGHT_MISSING);
+            return;
+        }
+
+        int level = LightUtil.uniformLevel(light);
+        if (level != -1) {
+            buffer.write(BYTE, (byte) PolarSection.LIGHT_UNIFORM);
+            buffer.write(BYTE, (byte) level);
+        } else {
+            buffer.write(BYTE, (byte) PolarSection.LIGHT_FULL);
+            buffer.write(RAW_BYTES, light);
+        }
+    }
+
+    private void writePalette(@NotNull NetworkBuffer buffer, String @NotNull [] palette, @NotNull PolarStringTable strings) {
+        buffer.write(VAR_INT, palette.length);
+        for (String value : palette) {
+            buffer.write(VAR_INT, strings.indexOf(value));
+        }
     }
 
     private void writeBlockEntity(@NotNull NetworkBuffer buffer, @NotNull PolarChunk.BlockEntity blockEntity) {
@@ -110,4 +561,27 @@ public class PolarWriter {
         buffer.write(STRING.optional(), blockEntity.id());
         buffer.write(NBT.optional(), blockEntity.data());
     }
+
+    /**
+     * Counts the bytes written to a stream, which is written in whole records so this is cheap.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+
+        CountingOutputStream(@NotNull OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte @NotNull [] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
 }
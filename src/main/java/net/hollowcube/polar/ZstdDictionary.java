@@ -0,0 +1,75 @@
+package net.hollowcube.polar;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A zstd dictionary for the chunk frames of a world. Chunk frames are small, and compress poorly on their own;
+ * a dictionary trained on similar chunks recovers most of the ratio of compressing the world as a whole, while
+ * keeping each chunk readable on its own.
+ * <p>
+ * The dictionary is stored in the world it is used by, see {@link net.hollowcube.polar.model.PolarWorld#setZstdDictionary}.
+ * Dictionaries are trained with {@link PolarWriter#trainDictionary}.
+ */
+public final class ZstdDictionary {
+    public static final int DEFAULT_SIZE = 64 * 1024;
+
+    private final byte[] data;
+
+    // Digested forms of the dictionary, created on first use and shared by every thread. Compression digests are
+    // specific to a level, only the last level used is kept.
+    private volatile ZstdDictCompress compressDict;
+    private volatile int compressLevel;
+    private volatile ZstdDictDecompress decompressDict;
+
+    public ZstdDictionary(byte @NotNull [] data) {
+        this.data = data.clone();
+    }
+
+    public byte @NotNull [] data() {
+        return data.clone();
+    }
+
+    /**
+     * The id of the dictionary, which zstd also records in every frame compressed with it.
+     */
+    public long id() {
+        return Zstd.getDictIdFromDict(data);
+    }
+
+    // Not copied, for the writer only.
+    byte @NotNull [] rawData() {
+        return data;
+    }
+
+    byte @NotNull [] compress(byte @NotNull [] src, int level) {
+        if (level == 0) level = Zstd.defaultCompressionLevel();
+
+        ZstdDictCompress dict;
+        synchronized (this) {
+            dict = compressDict;
+            if (dict == null || compressLevel != level) {
+                compressDict = dict = new ZstdDictCompress(data, level);
+                compressLevel = level;
+            }
+        }
+        return Zstd.compress(src, dict);
+    }
+
+    /**
+     * Decompresses a frame into {@code dst}, returning the decompressed size or a zstd error code.
+     */
+    long decompress(byte @NotNull [] dst, byte @NotNull [] src, int offset, int length) {
+        ZstdDictDecompress dict = decompressDict;
+        if (dict == null) {
+            synchronized (this) {
+                dict = decompressDict;
+                if (dict == null)
+                    decompressDict = dict = new ZstdDictDecompress(data);
+            }
+        }
+        return Zstd.decompressFastDict(dst, 0, src, offset, length, dict);
+    }
+}
@@ -1,11 +1,17 @@
 package net.hollowcube.polar.minestom;
 
+import net.hollowcube.polar.model.PolarWorld;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 
 public class FilePolarChunkLoader extends PolarChunkLoader {
     private final Path path;
@@ -33,6 +39,34 @@ public class FilePolarChunkLoader extends PolarChunkLoader {
         });
     }
 
+    @Override
+    public CompletableFuture<@Nullable PolarWorld> readWorld() {
+        return CompletableFuture.supplyAsync(() -> {
+            if (!Files.exists(path)) {
+                throw new IllegalStateException("World doesn't exist at " + path);
+            }
+
+            try (InputStream in = Files.newInputStream(path)) {
+                // Decompressed as it is read, so the compressed file is never held in memory.
+                return new PolarWorld(reader().readIndex(in), false);
+            } catch (Throwable t) {
+                throw new RuntimeException("Error loading world at " + path, t);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> saveWorld(@NotNull PolarWorld world) {
+        return CompletableFuture.runAsync(() -> {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+                writer().write(world, out, ForkJoinPool.commonPool());
+            } catch (Throwable t) {
+                throw new RuntimeException("Failed to save world", t);
+            }
+        }, getSaveExecutor());
+    }
+
     @Override
     public CompletableFuture<Void> saveWorld(byte[] polarBytes) {
         return CompletableFuture.runAsync(() -> {
@@ -41,6 +75,6 @@ public class FilePolarChunkLoader extends PolarChunkLoader {
             } catch (Throwable t) {
                 throw new RuntimeException("Failed to save world", t);
             }
-        });
+        }, getSaveExecutor());
     }
 }
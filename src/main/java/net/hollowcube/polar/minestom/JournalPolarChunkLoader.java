@@ -0,0 +1,387 @@
+package net.hollowcube.polar.minestom;
+
+import it.unimi.dsi.fastutil.longs.LongList;
+import net.hollowcube.polar.CompressionType;
+import net.hollowcube.polar.PolarFormat;
+import net.hollowcube.polar.ZstdDictionary;
+import net.hollowcube.polar.model.EncodedChunk;
+import net.hollowcube.polar.model.PolarStringTable;
+import net.hollowcube.polar.model.PolarWorld;
+import net.minestom.server.coordinate.CoordConversion;
+import net.minestom.server.network.NetworkBuffer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import static net.minestom.server.network.NetworkBuffer.*;
+
+/**
+ * A {@link FilePolarChunkLoader} which appends changed chunks to a journal next to the world file, rather than
+ * rewriting the whole world on every save.
+ * <p>
+ * The journal is replayed over the world when it is read. Once it grows past a fraction of the world file, it is
+ * folded back into a fresh world file by a compaction in the background. {@link #compact()} compacts on request.
+ */
+@SuppressWarnings("UnstableApiUsage")
+public class JournalPolarChunkLoader extends FilePolarChunkLoader {
+    private static final Logger LOG = LoggerFactory.getLogger(JournalPolarChunkLoader.class);
+
+    public static final double DEFAULT_COMPACTION_RATIO = 0.5;
+
+    // Magic, version, compression, world file size and checksum
+    private static final int HEADER_SIZE = 4 + 2 + 1 + 8 + 4;
+    // Record length and checksum
+    private static final int RECORD_HEADER_SIZE = 4 + 4;
+    // The end of the world file is checksummed to detect a journal belonging to a previous world file.
+    private static final int FINGERPRINT_SIZE = 4096;
+    private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+
+    // Record types
+    private static final byte RECORD_CHUNK = 0;
+    private static final byte RECORD_STRINGS = 1;
+
+    private final Path journalPath;
+    private final double compactionRatio;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Strings of the world table which are known to be in the world file or journal. Strings added to the table
+    // since are journaled before the chunks which refer to them.
+    private int journaledStrings = 0;
+    // The zstd dictionary of the world file, which the journal's frames must be compressed with to be readable.
+    private @Nullable ZstdDictionary fileDictionary;
+    private boolean fileDictionaryKnown = false;
+
+    public JournalPolarChunkLoader(@NotNull Path path) {
+        this(path, DEFAULT_COMPACTION_RATIO);
+    }
+
+    /**
+     * @param compactionRatio The size of the journal relative to the world file at which it is compacted
+     */
+    public JournalPolarChunkLoader(@NotNull Path path, double compactionRatio) {
+        super(path);
+        this.journalPath = path.resolveSibling(path.getFileName() + ".journal");
+        this.compactionRatio = compactionRatio;
+    }
+
+    public Path getJournalPath() {
+        return journalPath;
+    }
+
+    @Override
+    public CompletableFuture<@Nullable PolarWorld> readWorld() {
+        return super.readWorld().thenApply(world -> {
+            if (world == null) return null;
+
+            lock.lock();
+            try {
+                replayJournal(world);
+                return world;
+            } catch (Throwable t) {
+                throw new RuntimeException("Error replaying journal at " + journalPath, t);
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> saveWorld(@NotNull PolarWorld world) {
+        return CompletableFuture.runAsync(() -> {
+            boolean compact;
+            lock.lock();
+            try {
+                appendJournal(world);
+                compact = needsCompaction();
+            } catch (Throwable t) {
+                throw new RuntimeException("Failed to save world", t);
+            } finally {
+                lock.unlock();
+            }
+
+            // Saves requested during the compaction wait for it, but this save is already durable.
+            if (compact) {
+                CompletableFuture.runAsync(() -> compactWorld(world), getSaveExecutor()).exceptionally(t -> {
+                    LOG.error("Failed to compact world at {}", getPath(), t);
+                    return null;
+                });
+            }
+        }, getSaveExecutor());
+    }
+
+    @Override
+    public CompletableFuture<Void> saveWorld(byte[] polarBytes) {
+        Path path = getPath();
+        return CompletableFuture.runAsync(() -> {
+            lock.lock();
+            try {
+                Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+                Files.write(temp, polarBytes, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Files.deleteIfExists(journalPath);
+                // The dictionary of the given bytes is not known, the next save writes the whole world.
+                fileDictionaryKnown = false;
+            } catch (Throwable t) {
+                throw new RuntimeException("Failed to save world", t);
+            } finally {
+                lock.unlock();
+            }
+        }, getSaveExecutor());
+    }
+
+    /**
+     * Folds the journal into a fresh world file, regardless of its size.
+     */
+    public CompletableFuture<Void> compact() {
+        if (getLoadingFuture() == null) {
+            throw new IllegalStateException("Attempted to compact before loadInstance()!");
+        }
+        return getLoadingFuture().thenAcceptAsync(inMemory -> compactWorld(inMemory.getPolarWorld()), getSaveExecutor());
+    }
+
+    private void compactWorld(@NotNull PolarWorld world) {
+        lock.lock();
+        try {
+            writeWorld(world);
+        } catch (Throwable t) {
+            throw new RuntimeException("Failed to compact world", t);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void replayJournal(@NotNull PolarWorld world) throws IOException {
+        fileDictionary = world.zstdDictionary();
+        fileDictionaryKnown = true;
+        if (!Files.exists(journalPath)) return;
+
+        byte[] journal = Files.readAllBytes(journalPath);
+        CompressionType compression = readHeader(journal);
+        if (compression == null) {
+            // The world file was replaced since the journal was written, so the journal no longer applies.
+            LOG.warn("Discarding journal at {} which does not match the world file", journalPath);
+            Files.delete(journalPath);
+            return;
+        }
+        short version = NetworkBuffer.wrap(journal, 4, journal.length).read(SHORT);
+        ZstdDictionary dictionary = compression == CompressionType.ZSTD ? world.zstdDictionary() : null;
+
+        int position = HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE <= journal.length) {
+            NetworkBuffer header = NetworkBuffer.wrap(journal, position, journal.length);
+            int length = header.read(INT), checksum = header.read(INT);
+            int start = position + RECORD_HEADER_SIZE;
+            if (length < 0 || length > journal.length - start || checksum != checksum(journal, start, length))
+                break;
+
+            NetworkBuffer record = NetworkBuffer.wrap(journal, start, start + length);
+            byte type = record.read(BYTE);
+            if (type == RECORD_STRINGS) {
+                replayStrings(world, record);
+            } else {
+                int x = record.read(VAR_INT), z = record.read(VAR_INT);
+                byte[] frame = Arrays.copyOfRange(journal, (int) record.readIndex(), start + length);
+                world.updateChunkAt(x, z, new EncodedChunk(version, compression, dictionary, world.strings(), frame));
+            }
+            position = start + length;
+        }
+        journaledStrings = world.strings().size();
+
+        // A record left incomplete by a crash is dropped, so that following records are appended after the last
+        // complete one.
+        if (position < journal.length) {
+            LOG.warn("Discarding incomplete record at the end of journal {}", journalPath);
+            try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.WRITE)) {
+                channel.truncate(position);
+            }
+        }
+    }
+
+    private void replayStrings(@NotNull PolarWorld world, @NotNull NetworkBuffer record) {
+        int first = record.read(VAR_INT), count = record.read(VAR_INT);
+        for (int i = 0; i < count; i++) {
+            String value = record.read(STRING);
+            // Strings may be journaled again if they were added while the world file was written.
+            if (first + i < world.strings().size()) continue;
+            if (world.strings().indexOf(value) != first + i) {
+                throw new IllegalStateException("Journal string table does not match the world at " + journalPath);
+            }
+        }
+    }
+
+    private void appendJournal(@NotNull PolarWorld world) throws IOException {
+        // Only dirty chunks are journaled, which needs the encoded form of every other chunk to be kept.
+        world.setEncodedChunkCache(true);
+
+        // Without a world file or a matching journal the whole world is written instead, which also starts a new
+        // journal for following saves.
+        if (!Files.exists(getPath()) || !prepareJournal(world)) {
+            writeWorld(world);
+            return;
+        }
+
+        LongList chunkIndices = world.dirtyChunkIndices();
+        if (chunkIndices.isEmpty()) return;
+
+        long start = System.nanoTime();
+        byte[][] frames = writer().writeChunks(world, chunkIndices, world.compression(), ForkJoinPool.commonPool());
+        String[] strings = world.strings().toArray();
+        int firstString = journaledStrings;
+        byte[] records = NetworkBuffer.makeArray(buffer -> {
+            if (strings.length > firstString) {
+                writeRecord(buffer, NetworkBuffer.makeArray(record -> {
+                    record.write(BYTE, RECORD_STRINGS);
+                    record.write(VAR_INT, firstString);
+                    record.write(VAR_INT, strings.length - firstString);
+                    for (int i = firstString; i < strings.length; i++) {
+                        record.write(STRING, strings[i]);
+                    }
+                }));
+            }
+            for (int i = 0; i < frames.length; i++) {
+                writeChunkRecord(buffer, chunkIndices.getLong(i), frames[i]);
+            }
+        });
+
+        // The chunks are no longer dirty once encoded, so if the append fails they are only persisted by
+        // rewriting the world.
+        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(records);
+            while (buffer.hasRemaining()) channel.write(buffer);
+            channel.force(false);
+            journaledStrings = strings.length;
+            getListener().worldWritten(records.length, frames.length, System.nanoTime() - start);
+        } catch (IOException e) {
+            LOG.warn("Failed to append to journal at {}, rewriting the world instead", journalPath, e);
+            writeWorld(world);
+        }
+    }
+
+    /**
+     * Creates the journal if it does not exist.
+     *
+     * @return Whether the journal can be appended to with the current world settings
+     */
+    private boolean prepareJournal(@NotNull PolarWorld world) throws IOException {
+        if (Files.exists(journalPath)) {
+            byte[] header = new byte[HEADER_SIZE];
+            try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.READ)) {
+                if (channel.read(ByteBuffer.wrap(header)) != HEADER_SIZE) return false;
+            }
+            short version = NetworkBuffer.wrap(header, 4, HEADER_SIZE).read(SHORT);
+            return readHeader(header) == world.compression() && version == PolarWorld.LATEST_VERSION
+                    && fileDictionaryKnown && world.zstdDictionary() == fileDictionary;
+        }
+
+        // Frames are compressed with the dictionary of the world, which must be the one stored in the world file.
+        if (!fileDictionaryKnown || world.zstdDictionary() != fileDictionary) return false;
+
+        long[] fingerprint = fingerprint();
+        byte[] header = NetworkBuffer.makeArray(buffer -> {
+            buffer.write(INT, PolarFormat.JOURNAL_MAGIC_NUMBER);
+            buffer.write(SHORT, PolarWorld.LATEST_VERSION);
+            buffer.write(BYTE, (byte) world.compression().ordinal());
+            buffer.write(LONG, fingerprint[0]);
+            buffer.write(INT, (int) fingerprint[1]);
+        });
+        Files.write(journalPath, header, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        return true;
+    }
+
+    /**
+     * Reads the header of the journal.
+     *
+     * @return The compression of the chunk frames in the journal, or null if the journal is not valid for the
+     *         current world file
+     */
+    private @Nullable CompressionType readHeader(byte @NotNull [] journal) throws IOException {
+        if (journal.length < HEADER_SIZE) return null;
+
+        NetworkBuffer buffer = NetworkBuffer.wrap(journal, 0, journal.length);
+        if (buffer.read(INT) != PolarFormat.JOURNAL_MAGIC_NUMBER) return null;
+        buffer.read(SHORT); // Version
+        byte compression = buffer.read(BYTE);
+        if (compression < 0 || compression >= CompressionType.values().length) return null;
+
+        long[] fingerprint = fingerprint();
+        if (buffer.read(LONG) != fingerprint[0] || buffer.read(INT) != (int) fingerprint[1]) return null;
+        return CompressionType.values()[compression];
+    }
+
+    private void writeChunkRecord(@NotNull NetworkBuffer buffer, long chunkIndex, byte @NotNull [] frame) {
+        writeRecord(buffer, NetworkBuffer.makeArray(record -> {
+            record.write(BYTE, RECORD_CHUNK);
+            record.write(VAR_INT, CoordConversion.chunkIndexGetX(chunkIndex));
+            record.write(VAR_INT, CoordConversion.chunkIndexGetZ(chunkIndex));
+            record.write(RAW_BYTES, frame);
+        }));
+    }
+
+    private void writeRecord(@NotNull NetworkBuffer buffer, byte @NotNull [] record) {
+        buffer.write(INT, record.length);
+        buffer.write(INT, checksum(record, 0, record.length));
+        buffer.write(RAW_BYTES, record);
+    }
+
+    private void writeWorld(@NotNull PolarWorld world) throws IOException {
+        // Strings added while the world is written may be missing from it, they are journaled again to be safe.
+        // If the write starts a new string table, every string of the new table is journaled again.
+        PolarStringTable table = world.strings();
+        int strings = table.size();
+        ZstdDictionary dictionary = world.zstdDictionary();
+        Path path = getPath();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+            writer().write(world, out, ForkJoinPool.commonPool());
+        }
+        // If the journal outlives the world file it was written for after a crash, its fingerprint no longer
+        // matches and it is discarded when read.
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(journalPath);
+        journaledStrings = world.strings() == table ? strings : 0;
+        fileDictionary = dictionary;
+        fileDictionaryKnown = true;
+    }
+
+    private boolean needsCompaction() throws IOException {
+        if (!Files.exists(journalPath)) return false;
+        long journalSize = Files.size(journalPath);
+        return journalSize > Math.max(MIN_COMPACTION_SIZE, Files.size(getPath()) * compactionRatio);
+    }
+
+    /**
+     * Returns the size of the world file and a checksum of its end.
+     */
+    private long @NotNull [] fingerprint() throws IOException {
+        try (FileChannel channel = FileChannel.open(getPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer tail = ByteBuffer.allocate((int) Math.min(size, FINGERPRINT_SIZE));
+            while (tail.hasRemaining()) {
+                if (channel.read(tail, size - tail.capacity() + tail.position()) < 0) break;
+            }
+            return new long[]{size, checksum(tail.array(), 0, tail.position())};
+        }
+    }
+
+    private static int checksum(byte @NotNull [] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+}
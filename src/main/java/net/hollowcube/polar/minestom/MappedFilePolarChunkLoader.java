@@ -0,0 +1,92 @@
+package net.hollowcube.polar.minestom;
+
+import net.hollowcube.polar.model.PolarWorld;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A {@link FilePolarChunkLoader} which maps the world file into memory instead of reading it onto the heap.
+ * <p>
+ * Uncompressed worlds and worlds using {@link PolarWorld#chunkFrames()} are read in place, so instances opening
+ * the same file share the OS page cache rather than each holding a private copy. Other worlds are decompressed
+ * onto the heap as usual. Files larger than 2GB cannot be mapped.
+ * <p>
+ * Windows does not allow replacing a file while it is mapped, and Java only releases a mapping once its buffer is
+ * garbage collected, which may never happen while the world still reads chunks from it. On Windows the file is
+ * therefore read onto the heap like {@link FilePolarChunkLoader} does, so that it can be saved over.
+ */
+public class MappedFilePolarChunkLoader extends FilePolarChunkLoader {
+    private static final boolean MAPPING_LOCKS_FILE = System.getProperty("os.name", "").startsWith("Windows");
+
+    public MappedFilePolarChunkLoader(@NotNull Path path) {
+        super(path);
+    }
+
+    @Override
+    public CompletableFuture<@Nullable PolarWorld> readWorld() {
+        if (MAPPING_LOCKS_FILE) return super.readWorld();
+
+        Path path = getPath();
+        return CompletableFuture.supplyAsync(() -> {
+            if (!Files.exists(path)) {
+                throw new IllegalStateException("World doesn't exist at " + path);
+            }
+
+            // The mapping stays valid after the channel is closed, until the buffer is garbage collected.
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IllegalStateException("World file is " + size + " bytes, only files up to 2GB can be mapped");
+                }
+                MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                return new PolarWorld(reader().readIndex(data), false);
+            } catch (Throwable t) {
+                throw new RuntimeException("Error loading world at " + path, t);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> saveWorld(@NotNull PolarWorld world) {
+        Path path = getPath();
+        return CompletableFuture.runAsync(() -> {
+            // Truncating a mapped file would invalidate the mapping the world is still reading unchanged chunks
+            // from, so the world is written next to it and moved over it instead.
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            try {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+                    writer().write(world, out, ForkJoinPool.commonPool());
+                }
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (Throwable t) {
+                throw new RuntimeException("Failed to save world", t);
+            }
+        }, getSaveExecutor());
+    }
+
+    @Override
+    public CompletableFuture<Void> saveWorld(byte[] polarBytes) {
+        Path path = getPath();
+        return CompletableFuture.runAsync(() -> {
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            try {
+                Files.write(temp, polarBytes, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (Throwable t) {
+                throw new RuntimeException("Failed to save world", t);
+            }
+        }, getSaveExecutor());
+    }
+}
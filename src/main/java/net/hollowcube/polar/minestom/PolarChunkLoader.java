@@ -1,6 +1,9 @@
 package net.hollowcube.polar.minestom;
 
 import net.hollowcube.polar.PolarFormat;
+import net.hollowcube.polar.PolarListener;
+import net.hollowcube.polar.PolarReader;
+import net.hollowcube.polar.PolarWriter;
 import net.hollowcube.polar.minestom.integration.InMemoryPolarWorld;
 import net.hollowcube.polar.model.PolarWorld;
 import net.minestom.server.MinecraftServer;
@@ -16,18 +19,103 @@ import org.slf4j.LoggerFactory;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @SuppressWarnings("UnstableApiUsage")
 public abstract class PolarChunkLoader implements IChunkLoader {
     private static final Logger LOG = LoggerFactory.getLogger(PolarChunkLoader.class);
 
+    // Encoding runs on the common pool, the save threads mostly wait on it and on the disk, so a few are enough.
+    // Further saves queue behind them. Shared with ShardedPolarChunkLoader.
+    private static final int SAVE_THREADS = 2;
+    static final ExecutorService DEFAULT_SAVE_EXECUTOR = createSaveExecutor();
+
     private Instance instance;
     private CompletableFuture<InMemoryPolarWorld> loadingWorld;
 
+    private Executor saveExecutor = DEFAULT_SAVE_EXECUTOR;
+    private PolarListener listener = PolarListener.NONE;
+    // The last save, and the save queued behind it which has not started yet. Saves requested while a save is
+    // queued join it, since the queued save encodes the world only once it starts.
+    private final Object saveLock = new Object();
+    private CompletableFuture<Void> lastSave = CompletableFuture.completedFuture(null);
+    private @Nullable CompletableFuture<Void> queuedSave = null;
+
     public abstract CompletableFuture<byte[]> loadWorld();
 
+    /**
+     * Reads the world. By default, the world is read lazily from the array returned by {@link #loadWorld()}.
+     * Implementations may override this to stream the world from storage instead, see
+     * {@link net.hollowcube.polar.PolarReader#readIndex(java.io.InputStream)}.
+     *
+     * @return The world, or null if there is no world yet
+     */
+    public CompletableFuture<@Nullable PolarWorld> readWorld() {
+        return loadWorld().thenApplyAsync(bytes -> {
+            if (bytes == null) return null;
+
+            // Chunks are only decoded when Minestom loads them, and are not retained afterward since the
+            // loaded chunk holds the same data until it is saved back.
+            return new PolarWorld(reader().readIndex(bytes), false);
+        });
+    }
+
     public abstract CompletableFuture<Void> saveWorld(byte[] polarBytes);
 
+    /**
+     * Saves the world. By default, the world is written to an array which is passed to {@link #saveWorld(byte[])}.
+     * Implementations may override this to stream the world to storage instead, see
+     * {@link net.hollowcube.polar.PolarWriter#write(PolarWorld, java.io.OutputStream)}.
+     */
+    public CompletableFuture<Void> saveWorld(@NotNull PolarWorld world) {
+        return saveWorld(writer().write(world, ForkJoinPool.commonPool()));
+    }
+
+    /**
+     * The executor worlds are encoded and written on. By default, a pool of daemon threads shared by every loader.
+     */
+    public @NotNull Executor getSaveExecutor() {
+        return saveExecutor;
+    }
+
+    public void setSaveExecutor(@NotNull Executor saveExecutor) {
+        this.saveExecutor = saveExecutor;
+    }
+
+    /**
+     * The listener the world reports its reads, writes and chunk loads to, see {@link #reader()} and
+     * {@link #writer()}. By default, nothing is reported.
+     */
+    public @NotNull PolarListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Sets the listener, which must be set before {@link #loadInstance(Instance)} to report the world being read.
+     */
+    public void setListener(@NotNull PolarListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * The reader implementations should read the world with, which reports to the {@link #getListener()}.
+     */
+    protected @NotNull PolarReader reader() {
+        return PolarFormat.READER.withListener(listener);
+    }
+
+    /**
+     * The writer implementations should write the world with, which reports to the {@link #getListener()}.
+     */
+    protected @NotNull PolarWriter writer() {
+        return PolarFormat.WRITER.withListener(listener);
+    }
+
     public final boolean isLoading() {
         return loadingWorld == null || !loadingWorld.isDone();
     }
@@ -39,12 +127,11 @@ public abstract class PolarChunkLoader implements IChunkLoader {
     @Override
     public void loadInstance(@NotNull Instance instance) {
         this.instance = instance;
-        this.loadingWorld = loadWorld().thenApplyAsync(bytes -> {
-            if (bytes == null) {
+        this.loadingWorld = readWorld().thenApply(polarWorld -> {
+            if (polarWorld == null) {
                 return new InMemoryPolarWorld(new PolarWorld());
             }
 
-            PolarWorld polarWorld = PolarFormat.READER.read(bytes);
             return new InMemoryPolarWorld(polarWorld);
         });
     }
@@ -55,7 +142,10 @@ public abstract class PolarChunkLoader implements IChunkLoader {
             throw new IllegalStateException("Attempted to load a chunk before loadInstance()!");
         }
         InMemoryPolarWorld inMemory = loadingWorld.join();
-        return inMemory.getLoader().loadChunk(instance, chunkX, chunkZ);
+        long start = System.nanoTime();
+        Chunk chunk = inMemory.getLoader().loadChunk(instance, chunkX, chunkZ);
+        if (chunk != null) listener.chunkLoaded(chunkX, chunkZ, System.nanoTime() - start);
+        return chunk;
     }
 
     @Override
@@ -63,19 +153,58 @@ public abstract class PolarChunkLoader implements IChunkLoader {
         saveChunks(instance.getChunks());
     }
 
+    /**
+     * Saves the given chunks, returning once they are written. The world is still encoded on the
+     * {@link #getSaveExecutor()}, see {@link #saveChunksAsync(Collection)} to not wait for it.
+     */
     @Override
     public void saveChunks(@NotNull Collection<Chunk> chunks) {
+        saveChunksAsync(chunks).join();
+    }
+
+    /**
+     * Saves the given chunks. The chunks are copied into the world on the next tick (or immediately if called
+     * from a tick thread), then the world is encoded and written on the {@link #getSaveExecutor()}.
+     * <p>
+     * Saves requested while another save is waiting to start are coalesced into that save.
+     *
+     * @return A future completing once the world is written with {@link #saveWorld(PolarWorld)}
+     */
+    public CompletableFuture<Void> saveChunksAsync(@NotNull Collection<Chunk> chunks) {
         if (loadingWorld == null) {
             throw new IllegalStateException("Attempted to save chunks before loadInstance()!");
         }
 
-        InMemoryPolarWorld inMemory = loadingWorld.join();
-        CompletableFuture.runAsync(() -> {
-            inMemory.getSaver().writeChunksDataToMemory(chunks);
-        }, this::sync).join();
+        return loadingWorld.thenCompose(inMemory -> CompletableFuture.runAsync(() -> {
+            snapshot(inMemory, chunks);
+        }, this::sync).thenCompose(unused -> scheduleSave(inMemory.getPolarWorld()))
+                .thenRunAsync(() -> evictChunks(inMemory.getPolarWorld()), saveExecutor));
+    }
+
+    private CompletableFuture<Void> scheduleSave(@NotNull PolarWorld world) {
+        synchronized (saveLock) {
+            if (queuedSave != null) return queuedSave;
 
-        byte[] bytes = inMemory.getSaver().saveChunks();
-        saveWorld(bytes);
+            CompletableFuture<Void> save = new CompletableFuture<>();
+            queuedSave = save;
+            // A failed save does not prevent the next one, which writes the whole world state again.
+            lastSave.whenCompleteAsync((unused, previousError) -> {
+                synchronized (saveLock) {
+                    if (queuedSave == save) queuedSave = null;
+                }
+
+                try {
+                    saveWorld(world).whenComplete((result, error) -> {
+                        if (error != null) save.completeExceptionally(error);
+                        else save.complete(null);
+                    });
+                } catch (Throwable t) {
+                    save.completeExceptionally(t);
+                }
+            }, saveExecutor);
+            lastSave = save;
+            return save;
+        }
     }
 
     @Override
@@ -85,9 +214,23 @@ public abstract class PolarChunkLoader implements IChunkLoader {
 
     @Override
     public void unloadChunk(Chunk chunk) {
-        loadingWorld.thenAcceptAsync(inMemory -> {
-            inMemory.getSaver().writeChunksDataToMemory(List.of(chunk));
-        }, this::sync);
+        loadingWorld.thenCompose(inMemory -> CompletableFuture.runAsync(() -> {
+            snapshot(inMemory, List.of(chunk));
+        }, this::sync).thenRunAsync(() -> evictChunks(inMemory.getPolarWorld()), saveExecutor));
+    }
+
+    private void snapshot(@NotNull InMemoryPolarWorld inMemory, @NotNull Collection<Chunk> chunks) {
+        long start = System.nanoTime();
+        inMemory.getSaver().writeChunksDataToMemory(chunks);
+        listener.chunksSnapshot(chunks.size(), System.nanoTime() - start);
+    }
+
+    /**
+     * Evicts the chunks over the memory budget of the world, if it has one. Snapshots only drop chunks which are
+     * already encoded, dirty chunks are encoded here rather than on the tick thread.
+     */
+    private void evictChunks(@NotNull PolarWorld world) {
+        if (world.memoryBudget() != PolarWorld.NO_MEMORY_BUDGET) world.evictChunks(writer());
     }
 
     private void sync(Runnable runnable) {
@@ -103,4 +246,11 @@ public abstract class PolarChunkLoader implements IChunkLoader {
     public boolean supportsParallelSaving() {
         return true;
     }
+
+    private static @NotNull ExecutorService createSaveExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(SAVE_THREADS, SAVE_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), Thread.ofPlatform().name("polar-save-", 0).daemon().factory());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,458 @@
+package net.hollowcube.polar.minestom;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.hollowcube.polar.PolarFormat;
+import net.hollowcube.polar.PolarListener;
+import net.hollowcube.polar.PolarReader;
+import net.hollowcube.polar.PolarWriter;
+import net.hollowcube.polar.minestom.integration.InMemoryPolarWorld;
+import net.hollowcube.polar.model.PolarWorld;
+import net.minestom.server.MinecraftServer;
+import net.minestom.server.coordinate.CoordConversion;
+import net.minestom.server.instance.Chunk;
+import net.minestom.server.instance.IChunkLoader;
+import net.minestom.server.instance.Instance;
+import net.minestom.server.network.NetworkBuffer;
+import net.minestom.server.thread.TickThread;
+import net.minestom.server.world.DimensionType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import static net.minestom.server.network.NetworkBuffer.*;
+
+/**
+ * A chunk loader which splits the world into square regions of chunks, each stored in its own Polar file inside
+ * a directory, so that a world does not need to fit in memory as a whole.
+ * <p>
+ * A region is read when the first chunk inside it is loaded, and released once every chunk inside it was unloaded
+ * and saved. Each region is saved on its own, and only if one of its chunks changed.
+ * <p>
+ * The directory also contains a manifest with the region size and section range of the world, which are fixed
+ * when the world is created.
+ */
+@SuppressWarnings("UnstableApiUsage")
+public class ShardedPolarChunkLoader implements IChunkLoader {
+    private static final Logger LOG = LoggerFactory.getLogger(ShardedPolarChunkLoader.class);
+
+    /**
+     * Regions of 32x32 chunks, the size of Anvil regions.
+     */
+    public static final int DEFAULT_REGION_SHIFT = 5;
+    public static final String MANIFEST_FILE_NAME = "manifest.polar";
+
+    private static final short MANIFEST_VERSION = 1;
+
+    private final Path directory;
+    // The region shift the loader was created with, or -1 to use the one of the manifest.
+    private final int regionShift;
+
+    private Instance instance;
+    private Manifest manifest;
+
+    private Executor saveExecutor = PolarChunkLoader.DEFAULT_SAVE_EXECUTOR;
+    private PolarListener listener = PolarListener.NONE;
+
+    // Open regions, by CoordConversion#chunkIndex of the region coordinates. Guarded by itself, as are the
+    // fields of every region.
+    private final Long2ObjectMap<Region> regions = new Long2ObjectOpenHashMap<>();
+
+    /**
+     * Creates a loader for the world in the given directory. Existing worlds keep the region size in their
+     * manifest, new worlds use {@link #DEFAULT_REGION_SHIFT}.
+     */
+    public ShardedPolarChunkLoader(@NotNull Path directory) {
+        this.directory = directory;
+        this.regionShift = -1;
+    }
+
+    /**
+     * @param regionShift The size of the regions, as a power of two. An existing world must have been created with
+     *                    the same size, see {@link #ShardedPolarChunkLoader(Path)} to use the size of the manifest.
+     */
+    public ShardedPolarChunkLoader(@NotNull Path directory, int regionShift) {
+        if (!isValidRegionShift(regionShift))
+            throw new IllegalArgumentException("Invalid region shift: " + regionShift);
+        this.directory = directory;
+        this.regionShift = regionShift;
+    }
+
+    public @NotNull Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * The path of the file of the region containing the given chunk, whether it exists or not.
+     */
+    public @NotNull Path getRegionPath(int chunkX, int chunkZ) {
+        int shift = manifest != null ? manifest.regionShift() : newRegionShift();
+        return directory.resolve("r." + (chunkX >> shift) + "." + (chunkZ >> shift) + ".polar");
+    }
+
+    /**
+     * The number of regions currently held in memory.
+     */
+    public int getOpenRegionCount() {
+        synchronized (regions) {
+            return regions.size();
+        }
+    }
+
+    /**
+     * @see PolarChunkLoader#getSaveExecutor()
+     */
+    public @NotNull Executor getSaveExecutor() {
+        return saveExecutor;
+    }
+
+    public void setSaveExecutor(@NotNull Executor saveExecutor) {
+        this.saveExecutor = saveExecutor;
+    }
+
+    /**
+     * @see PolarChunkLoader#getListener()
+     */
+    public @NotNull PolarListener getListener() {
+        return listener;
+    }
+
+    public void setListener(@NotNull PolarListener listener) {
+        this.listener = listener;
+    }
+
+    protected @NotNull PolarReader reader() {
+        return PolarFormat.READER.withListener(listener);
+    }
+
+    protected @NotNull PolarWriter writer() {
+        return PolarFormat.WRITER.withListener(listener);
+    }
+
+    /**
+     * Called for each region when it is read or created, before any of its chunks is loaded. Implementations may
+     * override this to set the compression, chunk frames or dictionary regions are written with.
+     */
+    protected void configureRegion(@NotNull PolarWorld world) {
+    }
+
+    @Override
+    public void loadInstance(@NotNull Instance instance) {
+        this.instance = instance;
+
+        DimensionType dimension = instance.getCachedDimensionType();
+        byte minSection = (byte) (dimension.minY() / Chunk.CHUNK_SECTION_SIZE);
+        byte maxSection = (byte) ((dimension.minY() + dimension.height()) / Chunk.CHUNK_SECTION_SIZE - 1);
+        try {
+            Files.createDirectories(directory);
+            Manifest manifest = readManifest();
+            if (manifest == null) {
+                manifest = new Manifest(newRegionShift(), minSection, maxSection);
+                writeManifest(manifest);
+            } else if (regionShift >= 0 && manifest.regionShift() != regionShift) {
+                throw new IllegalStateException(String.format("World at %s has a region shift of %d, but the loader has %d",
+                        directory, manifest.regionShift(), regionShift));
+            } else if (manifest.minSection() != minSection || manifest.maxSection() != maxSection) {
+                throw new IllegalStateException(String.format("World at %s has sections %d to %d, but the instance has %d to %d",
+                        directory, manifest.minSection(), manifest.maxSection(), minSection, maxSection));
+            }
+            this.manifest = manifest;
+        } catch (IOException e) {
+            throw new RuntimeException("Error loading world manifest at " + directory, e);
+        }
+    }
+
+    @Override
+    public @Nullable Chunk loadChunk(@NotNull Instance instance, int chunkX, int chunkZ) {
+        if (manifest == null) {
+            throw new IllegalStateException("Attempted to load a chunk before loadInstance()!");
+        }
+
+        Region region;
+        synchronized (regions) {
+            region = openRegion(chunkX >> manifest.regionShift(), chunkZ >> manifest.regionShift());
+            region.loadedChunks++;
+        }
+
+        try {
+            InMemoryPolarWorld inMemory = region.world.join();
+            long start = System.nanoTime();
+            Chunk chunk = inMemory.getLoader().loadChunk(instance, chunkX, chunkZ);
+            if (chunk != null) listener.chunkLoaded(chunkX, chunkZ, System.nanoTime() - start);
+            return chunk;
+        } catch (Throwable t) {
+            // The chunk is not loaded, so it is never unloaded either.
+            synchronized (regions) {
+                region.loadedChunks--;
+                // A region which failed to read is forgotten, so that the next load reads it again.
+                if (region.world.isCompletedExceptionally() && regions.get(region.index()) == region)
+                    regions.remove(region.index());
+            }
+            throw t;
+        }
+    }
+
+    @Override
+    public void saveInstance(@NotNull Instance instance) {
+        saveChunks(instance.getChunks());
+    }
+
+    @Override
+    public void saveChunk(@NotNull Chunk chunk) {
+        saveChunks(List.of(chunk));
+    }
+
+    /**
+     * @see PolarChunkLoader#saveChunks(Collection)
+     */
+    @Override
+    public void saveChunks(@NotNull Collection<Chunk> chunks) {
+        saveChunksAsync(chunks).join();
+    }
+
+    /**
+     * Saves the given chunks. The chunks are copied into their regions on the next tick (or immediately if called
+     * from a tick thread), then each region with changes is written on the {@link #getSaveExecutor()}.
+     *
+     * @return A future completing once every region is written
+     */
+    public CompletableFuture<Void> saveChunksAsync(@NotNull Collection<Chunk> chunks) {
+        if (manifest == null) {
+            throw new IllegalStateException("Attempted to save chunks before loadInstance()!");
+        }
+
+        Long2ObjectMap<List<Chunk>> chunksByRegion = new Long2ObjectOpenHashMap<>();
+        for (Chunk chunk : chunks) {
+            long regionIndex = CoordConversion.chunkIndex(chunk.getChunkX() >> manifest.regionShift(),
+                    chunk.getChunkZ() >> manifest.regionShift());
+            chunksByRegion.computeIfAbsent(regionIndex, unused -> new ArrayList<>()).add(chunk);
+        }
+
+        List<CompletableFuture<Void>> saves = new ArrayList<>(chunksByRegion.size());
+        for (Long2ObjectMap.Entry<List<Chunk>> entry : chunksByRegion.long2ObjectEntrySet()) {
+            Region region;
+            synchronized (regions) {
+                region = openRegion(CoordConversion.chunkIndexGetX(entry.getLongKey()),
+                        CoordConversion.chunkIndexGetZ(entry.getLongKey()));
+            }
+            saves.add(region.world.thenCompose(inMemory -> CompletableFuture.runAsync(() -> {
+                snapshot(inMemory, entry.getValue());
+            }, this::sync).thenCompose(unused -> saveRegion(region))
+                    .thenRunAsync(() -> evictChunks(inMemory.getPolarWorld()), saveExecutor)));
+        }
+        return CompletableFuture.allOf(saves.toArray(CompletableFuture[]::new));
+    }
+
+    @Override
+    public void unloadChunk(Chunk chunk) {
+        if (manifest == null) {
+            throw new IllegalStateException("Attempted to unload a chunk before loadInstance()!");
+        }
+
+        int regionX = chunk.getChunkX() >> manifest.regionShift(), regionZ = chunk.getChunkZ() >> manifest.regionShift();
+        Region region;
+        boolean counted;
+        synchronized (regions) {
+            counted = regions.containsKey(CoordConversion.chunkIndex(regionX, regionZ));
+            region = openRegion(regionX, regionZ);
+        }
+        // The chunk was not loaded by this loader, it is still saved so that its changes are not lost.
+        if (!counted) {
+            LOG.warn("Chunk {}, {} was unloaded while its region is not open, reading the region to save it",
+                    chunk.getChunkX(), chunk.getChunkZ());
+        }
+
+        region.world.thenCompose(inMemory -> CompletableFuture.runAsync(() -> {
+            snapshot(inMemory, List.of(chunk));
+        }, this::sync).thenCompose(unused -> {
+            boolean lastChunk;
+            synchronized (regions) {
+                lastChunk = (counted ? --region.loadedChunks : region.loadedChunks) == 0;
+            }
+            // The last chunk of the region was unloaded, it is released once saved.
+            if (lastChunk) return saveRegion(region);
+            return CompletableFuture.runAsync(() -> evictChunks(inMemory.getPolarWorld()), saveExecutor);
+        })).exceptionally(t -> {
+            LOG.error("Failed to unload chunk {}, {}", chunk.getChunkX(), chunk.getChunkZ(), t);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean supportsParallelSaving() {
+        return true;
+    }
+
+    /**
+     * Returns the open region, or starts reading it. Must be called while holding the lock on the regions.
+     */
+    private @NotNull Region openRegion(int regionX, int regionZ) {
+        long index = CoordConversion.chunkIndex(regionX, regionZ);
+        Region region = regions.get(index);
+        if (region == null) {
+            Path path = getRegionPath(regionX << manifest.regionShift(), regionZ << manifest.regionShift());
+            region = new Region(regionX, regionZ, path, CompletableFuture.supplyAsync(() -> readRegion(path)));
+            regions.put(index, region);
+        }
+        return region;
+    }
+
+    private @NotNull InMemoryPolarWorld readRegion(@NotNull Path path) {
+        PolarWorld world;
+        if (Files.exists(path)) {
+            try (InputStream in = Files.newInputStream(path)) {
+                // Chunks are only decoded when Minestom loads them, and are not retained afterward since the
+                // loaded chunk holds the same data until it is saved back.
+                world = new PolarWorld(reader().readIndex(in), false);
+            } catch (Throwable t) {
+                throw new RuntimeException("Error loading region at " + path, t);
+            }
+            if (world.minSection() != manifest.minSection() || world.maxSection() != manifest.maxSection())
+                throw new IllegalStateException("Region at " + path + " does not match the world sections");
+        } else {
+            world = new PolarWorld(PolarWorld.LATEST_VERSION, PolarWorld.DEFAULT_COMPRESSION,
+                    manifest.minSection(), manifest.maxSection(), List.of());
+            // Regions are only written when they have dirty chunks, which needs the encoded form of the others.
+            world.setEncodedChunkCache(true);
+        }
+        configureRegion(world);
+        return new InMemoryPolarWorld(world);
+    }
+
+    /**
+     * Writes the region if any of its chunks changed, after any save of the region already running.
+     * The region is released afterward if none of its chunks are loaded.
+     */
+    private @NotNull CompletableFuture<Void> saveRegion(@NotNull Region region) {
+        CompletableFuture<Void> save;
+        synchronized (regions) {
+            save = region.lastSave.exceptionally(t -> null).thenCompose(unused -> region.world)
+                    .thenAcceptAsync(inMemory -> writeRegion(region, inMemory.getPolarWorld()), saveExecutor);
+            region.lastSave = save;
+        }
+
+        return save.thenRun(() -> {
+            synchronized (regions) {
+                // Only the last save releases the region, since later saves may have more changes to write.
+                if (region.loadedChunks == 0 && region.lastSave == save && regions.get(region.index()) == region)
+                    regions.remove(region.index());
+            }
+        });
+    }
+
+    private void writeRegion(@NotNull Region region, @NotNull PolarWorld world) {
+        if (world.dirtyChunkIndices().isEmpty()) return;
+
+        // Written next to the region and moved over it, so the region file is never left half written.
+        Path temp = region.path.resolveSibling(region.path.getFileName() + ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+                writer().write(world, out, ForkJoinPool.commonPool());
+            }
+            Files.move(temp, region.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Throwable t) {
+            throw new RuntimeException("Failed to save region at " + region.path, t);
+        }
+    }
+
+    private void snapshot(@NotNull InMemoryPolarWorld inMemory, @NotNull Collection<Chunk> chunks) {
+        long start = System.nanoTime();
+        inMemory.getSaver().writeChunksDataToMemory(chunks);
+        listener.chunksSnapshot(chunks.size(), System.nanoTime() - start);
+    }
+
+    // Dirty chunks over the memory budget of a region are encoded on the save executor, not on the tick thread.
+    private void evictChunks(@NotNull PolarWorld world) {
+        if (world.memoryBudget() != PolarWorld.NO_MEMORY_BUDGET) world.evictChunks(writer());
+    }
+
+    private @Nullable Manifest readManifest() throws IOException {
+        Path path = directory.resolve(MANIFEST_FILE_NAME);
+        if (!Files.exists(path)) return null;
+
+        byte[] data = Files.readAllBytes(path);
+        NetworkBuffer buffer = NetworkBuffer.wrap(data, 0, data.length);
+        if (buffer.read(INT) != PolarFormat.SHARDS_MAGIC_NUMBER)
+            throw new IOException("Invalid world manifest at " + path);
+        short version = buffer.read(SHORT);
+        if (version > MANIFEST_VERSION)
+            throw new IOException("Unsupported world manifest version " + version + " at " + path);
+        int regionShift = buffer.read(BYTE);
+        if (!isValidRegionShift(regionShift))
+            throw new IOException("Invalid region shift " + regionShift + " in world manifest at " + path);
+        return new Manifest(regionShift, buffer.read(BYTE), buffer.read(BYTE));
+    }
+
+    private void writeManifest(@NotNull Manifest manifest) throws IOException {
+        byte[] data = NetworkBuffer.makeArray(buffer -> {
+            buffer.write(INT, PolarFormat.SHARDS_MAGIC_NUMBER);
+            buffer.write(SHORT, MANIFEST_VERSION);
+            buffer.write(BYTE, (byte) manifest.regionShift());
+            buffer.write(BYTE, manifest.minSection());
+            buffer.write(BYTE, manifest.maxSection());
+        });
+        Path path = directory.resolve(MANIFEST_FILE_NAME);
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temp, data, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private int newRegionShift() {
+        return regionShift >= 0 ? regionShift : DEFAULT_REGION_SHIFT;
+    }
+
+    private static boolean isValidRegionShift(int regionShift) {
+        return regionShift >= 0 && regionShift <= 15;
+    }
+
+    private void sync(Runnable runnable) {
+        Thread currentThread = Thread.currentThread();
+        if (currentThread instanceof TickThread || MinecraftServer.isStopping()) {
+            runnable.run();
+        } else {
+            instance.scheduler().scheduleNextTick(runnable);
+        }
+    }
+
+    private record Manifest(int regionShift, byte minSection, byte maxSection) {
+    }
+
+    private static final class Region {
+        private final int x;
+        private final int z;
+        private final Path path;
+        private final CompletableFuture<InMemoryPolarWorld> world;
+
+        // Chunks of the region loaded into the instance, and the last save of the region. Guarded by the regions.
+        private int loadedChunks = 0;
+        private CompletableFuture<Void> lastSave = CompletableFuture.completedFuture(null);
+
+        Region(int x, int z, @NotNull Path path, @NotNull CompletableFuture<InMemoryPolarWorld> world) {
+            this.x = x;
+            this.z = z;
+            this.path = path;
+            this.world = world;
+        }
+
+        long index() {
+            return CoordConversion.chunkIndex(x, z);
+        }
+    }
+}
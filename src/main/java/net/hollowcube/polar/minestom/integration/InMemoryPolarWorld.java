@@ -11,12 +11,20 @@ public class InMemoryPolarWorld {
     private final MinestomPolarSaver saver;
 
     public InMemoryPolarWorld(PolarWorld polarWorld) {
+        this(polarWorld, PolarBlockCache.SHARED);
+    }
+
+    public InMemoryPolarWorld(PolarWorld polarWorld, PolarBlockCache blockCache) {
         this.polarWorld = polarWorld;
 
         this.biomeCache = new PolarBiomeCache();
 
-        this.loader = new MinestomPolarLoader(polarWorld, biomeCache);
-        this.saver = new MinestomPolarSaver(polarWorld, biomeCache);
+        this.loader = new MinestomPolarLoader(polarWorld, biomeCache, blockCache);
+        this.saver = new MinestomPolarSaver(polarWorld, biomeCache, blockCache);
+    }
+
+    public PolarWorld getPolarWorld() {
+        return polarWorld;
     }
 
     public MinestomPolarLoader getLoader() {
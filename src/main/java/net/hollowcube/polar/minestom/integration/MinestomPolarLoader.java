@@ -4,9 +4,8 @@ import net.hollowcube.polar.minestom.FilePolarChunkLoader;
 import net.hollowcube.polar.model.PolarChunk;
 import net.hollowcube.polar.model.PolarSection;
 import net.hollowcube.polar.model.PolarWorld;
+import net.kyori.adventure.nbt.CompoundBinaryTag;
 import net.minestom.server.MinecraftServer;
-import net.minestom.server.command.builder.arguments.minecraft.ArgumentBlockState;
-import net.minestom.server.command.builder.exception.ArgumentSyntaxException;
 import net.minestom.server.instance.Chunk;
 import net.minestom.server.instance.Instance;
 import net.minestom.server.instance.Section;
@@ -22,12 +21,22 @@ public class MinestomPolarLoader {
 
     private static final BlockManager BLOCK_MANAGER = MinecraftServer.getBlockManager();
 
+    // Palette data is unpacked and mapped to ids in place, chunks may be loaded from several threads at once.
+    private static final ThreadLocal<int[]> BLOCK_DATA = ThreadLocal.withInitial(() -> new int[PolarSection.BLOCK_PALETTE_SIZE]);
+    private static final ThreadLocal<int[]> BIOME_DATA = ThreadLocal.withInitial(() -> new int[PolarSection.BIOME_PALETTE_SIZE]);
+
     private final PolarWorld polarWorld;
     private final PolarBiomeCache biomeCache;
+    private final PolarBlockCache blockCache;
 
     public MinestomPolarLoader(PolarWorld polarWorld, PolarBiomeCache biomeCache) {
+        this(polarWorld, biomeCache, PolarBlockCache.SHARED);
+    }
+
+    public MinestomPolarLoader(PolarWorld polarWorld, PolarBiomeCache biomeCache, PolarBlockCache blockCache) {
         this.polarWorld = polarWorld;
         this.biomeCache = biomeCache;
+        this.blockCache = blockCache;
     }
 
     public final @Nullable Chunk loadChunk(@NotNull Instance instance, int chunkX, int chunkZ) {
@@ -55,6 +64,8 @@ public class MinestomPolarLoader {
             sectionY++;
         }
 
+        loadHeightmaps(chunkData, chunk);
+
         for (PolarChunk.BlockEntity blockEntity : chunkData.blockEntities()) {
             loadBlockEntity(blockEntity, chunk);
         }
@@ -67,24 +78,28 @@ public class MinestomPolarLoader {
 
         // Blocks
         String[] rawBlockPalette = sectionData.blockPalette();
-        Block[] blockPalette = new Block[rawBlockPalette.length];
+        int[] blockPalette = new int[rawBlockPalette.length];
         for (int i = 0; i < rawBlockPalette.length; i++) {
-            try {
-                //noinspection deprecation
-                blockPalette[i] = ArgumentBlockState.staticParse(rawBlockPalette[i]);
-            } catch (ArgumentSyntaxException e) {
-                logger.error("Failed to parse block state: {} ({})", rawBlockPalette[i], e.getMessage());
-                blockPalette[i] = Block.AIR;
-            }
+            blockPalette[i] = blockCache.getStateId(rawBlockPalette[i]);
         }
         if (blockPalette.length == 1) {
-            section.blockPalette().fill(blockPalette[0].stateId());
+            section.blockPalette().fill(blockPalette[0]);
         } else {
-            final int[] paletteData = sectionData.blockData();
-            section.blockPalette().setAll((x, y, z) -> {
-                int index = y * Chunk.CHUNK_SECTION_SIZE * Chunk.CHUNK_SECTION_SIZE + z * Chunk.CHUNK_SECTION_SIZE + x;
-                return blockPalette[paletteData[index]].stateId();
-            });
+            final int[] blockData = BLOCK_DATA.get();
+            sectionData.unpackBlockData(blockData);
+            for (int i = 0; i < blockData.length; i++) {
+                int paletteIndex = blockData[i];
+                if (paletteIndex >= blockPalette.length) {
+                    logger.error("Invalid block palette index. This is probably a corrupted world, " +
+                            "but it has been loaded with air instead. No data has been written.");
+                    blockData[i] = Block.AIR.stateId();
+                    continue;
+                }
+
+                blockData[i] = blockPalette[paletteIndex];
+            }
+            section.blockPalette().setAll((x, y, z) ->
+                    blockData[y * Chunk.CHUNK_SECTION_SIZE * Chunk.CHUNK_SECTION_SIZE + z * Chunk.CHUNK_SECTION_SIZE + x]);
         }
 
         // Biomes
@@ -96,19 +111,20 @@ public class MinestomPolarLoader {
         if (biomePalette.length == 1) {
             section.biomePalette().fill(biomePalette[0]);
         } else {
-            final int[] paletteData = sectionData.biomeData();
-            section.biomePalette().setAll((x, y, z) -> {
-                int index = x / 4 + (z / 4) * 4 + (y / 4) * 16;
-
-                int paletteIndex = paletteData[index];
+            final int[] biomeData = BIOME_DATA.get();
+            sectionData.unpackBiomeData(biomeData);
+            for (int i = 0; i < biomeData.length; i++) {
+                int paletteIndex = biomeData[i];
                 if (paletteIndex >= biomePalette.length) {
                     logger.error("Invalid biome palette index. This is probably a corrupted world, " +
                             "but it has been loaded with plains instead. No data has been written.");
-                    return PolarBiomeCache.PLAINS_BIOME_ID;
+                    biomeData[i] = PolarBiomeCache.PLAINS_BIOME_ID;
+                    continue;
                 }
 
-                return biomePalette[paletteIndex];
-            });
+                biomeData[i] = biomePalette[paletteIndex];
+            }
+            section.biomePalette().setAll((x, y, z) -> biomeData[x / 4 + (z / 4) * 4 + (y / 4) * 16]);
         }
 
         // Light
@@ -120,6 +136,19 @@ public class MinestomPolarLoader {
         }
     }
 
+    private void loadHeightmaps(@NotNull PolarChunk chunkData, @NotNull Chunk chunk) {
+        int height = (chunk.getMaxSection() - chunk.getMinSection()) * Chunk.CHUNK_SECTION_SIZE;
+        long[] motionBlocking = chunkData.heightmapData(PolarChunk.heightmapIndex(PolarChunk.HEIGHTMAP_MOTION_BLOCKING), height);
+        long[] worldSurface = chunkData.heightmapData(PolarChunk.heightmapIndex(PolarChunk.HEIGHTMAP_WORLD_SURFACE), height);
+        // Minestom computes the heightmaps from the blocks unless both are given and valid for this world height
+        if (motionBlocking == null || worldSurface == null) return;
+
+        chunk.loadHeightmapsFromNBT(CompoundBinaryTag.builder()
+                .putLongArray("MOTION_BLOCKING", motionBlocking)
+                .putLongArray("WORLD_SURFACE", worldSurface)
+                .build());
+    }
+
     private void loadBlockEntity(@NotNull PolarChunk.BlockEntity blockEntity, @NotNull Chunk chunk) {
         // Fetch the block type, we can ignore Handler/NBT since we are about to replace it
         Block block = chunk.getBlock(blockEntity.x(), blockEntity.y(), blockEntity.z(), Block.Getter.Condition.TYPE);
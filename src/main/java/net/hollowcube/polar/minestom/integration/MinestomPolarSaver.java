@@ -1,128 +1,154 @@
 package net.hollowcube.polar.minestom.integration;
 
-import it.unimi.dsi.fastutil.shorts.Short2ObjectMap;
-import it.unimi.dsi.fastutil.shorts.Short2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import net.hollowcube.polar.PolarFormat;
 import net.hollowcube.polar.model.PolarChunk;
 import net.hollowcube.polar.model.PolarSection;
 import net.hollowcube.polar.model.PolarWorld;
+import net.hollowcube.polar.util.LightUtil;
+import net.hollowcube.polar.util.PaletteUtil;
+import net.minestom.server.coordinate.CoordConversion;
 import net.minestom.server.instance.Chunk;
+import net.minestom.server.instance.DynamicChunk;
 import net.minestom.server.instance.Section;
 import net.minestom.server.instance.block.Block;
+import net.minestom.server.instance.heightmap.Heightmap;
 import net.minestom.server.world.DimensionType;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class MinestomPolarSaver {
+    private static final Logger logger = LoggerFactory.getLogger(MinestomPolarSaver.class);
+
+    // DynamicChunk already keeps every block with a handler or nbt, which saves checking all blocks of the chunk.
+    // This reads its protected `entries` field, an undocumented internal which may change or disappear in any
+    // Minestom version. If the field is missing or cannot be read, or reading is disabled with the property,
+    // every block is checked instead.
+    private static final boolean SCAN_BLOCK_ENTITIES = Boolean.getBoolean("polar.saver.scan-block-entities");
+    private static final @Nullable VarHandle DYNAMIC_CHUNK_ENTRIES = SCAN_BLOCK_ENTITIES ? null : findDynamicChunkEntries();
+    private static volatile boolean dynamicChunkEntriesFailed = false;
+
+    // Sections are never modified, so every empty section shares these.
+    private static final String[] AIR_PALETTE = new String[]{"air"};
+    private static final PolarSection EMPTY_SECTION = new PolarSection();
+
+    // Chunks may be saved from several tick threads at once, each thread reuses its own palette builders.
+    private static final ThreadLocal<PaletteBuilder> BLOCK_PALETTE = ThreadLocal.withInitial(() -> new PaletteBuilder(PolarSection.BLOCK_PALETTE_SIZE));
+    private static final ThreadLocal<PaletteBuilder> BIOME_PALETTE = ThreadLocal.withInitial(() -> new PaletteBuilder(PolarSection.BIOME_PALETTE_SIZE));
+
     private final PolarWorld polarWorld;
     private final PolarBiomeCache biomeCache;
+    private final PolarBlockCache blockCache;
 
     public MinestomPolarSaver(PolarWorld polarWorld, PolarBiomeCache biomeCache) {
+        this(polarWorld, biomeCache, PolarBlockCache.SHARED);
+    }
+
+    public MinestomPolarSaver(PolarWorld polarWorld, PolarBiomeCache biomeCache, PolarBlockCache blockCache) {
         this.polarWorld = polarWorld;
         this.biomeCache = biomeCache;
+        this.blockCache = blockCache;
     }
 
     public void writeChunksDataToMemory(@NotNull Collection<Chunk> chunks) {
-        Short2ObjectOpenHashMap<String> blockCache = new Short2ObjectOpenHashMap<String>();
-
         // Update state of each chunk locally
-        chunks.forEach(c -> updateChunkData(blockCache, c));
+        chunks.forEach(this::updateChunkData);
     }
 
     public byte[] saveChunks() {
-        return PolarFormat.WRITER.write(polarWorld);
+        return PolarFormat.WRITER.write(polarWorld, ForkJoinPool.commonPool());
     }
 
-    private void updateChunkData(@NotNull Short2ObjectMap<String> blockCache, @NotNull Chunk chunk) {
+    private void updateChunkData(@NotNull Chunk chunk) {
         DimensionType dimension = chunk.getInstance().getCachedDimensionType();
 
         ArrayList<PolarChunk.BlockEntity> blockEntities = new ArrayList<PolarChunk.BlockEntity>();
         PolarSection[] sections = new PolarSection[dimension.height() / Chunk.CHUNK_SECTION_SIZE];
         assert sections.length == chunk.getSections().size(): "World height mismatch";
 
-        byte[][] heightmaps = new byte[32][PolarChunk.HEIGHTMAPS.length];
+        byte[][] heightmaps = new byte[PolarChunk.HEIGHTMAPS.length][];
 
         byte[] userData = new byte[0];
 
+        PaletteBuilder blocks = BLOCK_PALETTE.get(), biomes = BIOME_PALETTE.get();
         synchronized (chunk) {
+            Int2ObjectMap<Block> entries = blockEntries(chunk);
+            if (entries != null) {
+                for (Int2ObjectMap.Entry<Block> entry : entries.int2ObjectEntrySet()) {
+                    int index = entry.getIntKey();
+                    addBlockEntity(blockEntities, CoordConversion.chunkBlockIndexGetX(index),
+                            CoordConversion.chunkBlockIndexGetY(index),
+                            CoordConversion.chunkBlockIndexGetZ(index), entry.getValue());
+                }
+            }
+
             for (int i = 0; i < sections.length; i++) {
                 int sectionY = i + chunk.getMinSection();
                 Section section = chunk.getSection(sectionY);
-                //todo check if section is empty and skip
 
-                ArrayList<String> blockPalette = new ArrayList<String>();
-                int[] blockData = null;
+                byte[] blockLight = lightData(section.blockLight().array());
+                byte[] skyLight = lightData(section.skyLight().array());
+
+                biomes.reset();
+                section.biomePalette().getAll((x, y, z, id) -> biomes.add(x + z * 4 + y * 4 * 4, id));
+
+                // An air section with only plains and no light loads the same as a section which was never touched,
+                // so it is written as empty.
+                if (section.blockPalette().count() == 0 && blockLight == null && skyLight == null
+                        && biomes.size == 1 && biomes.values[0] == PolarBiomeCache.PLAINS_BIOME_ID) {
+                    sections[i] = EMPTY_SECTION;
+                    continue;
+                }
+
+                String[] blockPalette;
+                long[] blockData = null;
                 if (section.blockPalette().count() == 0) {
                     // Short circuit empty palette
-                    blockPalette.add("air");
+                    blockPalette = AIR_PALETTE;
                 } else {
-                    int[] localBlockData = new int[PolarSection.BLOCK_PALETTE_SIZE];
-
-                    section.blockPalette().getAll((x, sectionLocalY, z, blockStateId) -> {
-                        final int blockIndex = x + sectionLocalY * 16 * 16 + z * 16;
-
-                        // Section palette
-                        String namespace = blockCache.computeIfAbsent((short) blockStateId, unused -> blockToString(Block.fromStateId((short) blockStateId)));
-                        int paletteId = blockPalette.indexOf(namespace);
-                        if (paletteId == -1) {
-                            paletteId = blockPalette.size();
-                            blockPalette.add(namespace);
-                        }
-                        localBlockData[blockIndex] = paletteId;
-                    });
-
-                    blockData = localBlockData;
-
-                    // Block entities
-                    for (int sectionLocalY = 0; sectionLocalY < Chunk.CHUNK_SECTION_SIZE; sectionLocalY++) {
-                        for (int z = 0; z < Chunk.CHUNK_SIZE_Z; z++) {
-                            for (int x = 0; x < Chunk.CHUNK_SIZE_X; x++) {
-                                int y = sectionLocalY + sectionY * Chunk.CHUNK_SECTION_SIZE;
-                                Block block = chunk.getBlock(x, y, z, Block.Getter.Condition.CACHED);
-                                if (block == null) continue;
-
-                                String handlerId = block.handler() == null ? null : block.handler().getNamespaceId().asString();
-                                if (handlerId != null || block.hasNbt()) {
-                                    blockEntities.add(new PolarChunk.BlockEntity(
-                                            x, y, z, handlerId, block.nbt()
-                                    ));
-                                }
-                            }
-                        }
-                    }
-                }
-
-                ArrayList<String> biomePalette = new ArrayList<String>();
-                int[] biomeData = new int[PolarSection.BIOME_PALETTE_SIZE];
-
-                section.biomePalette().getAll((x, y, z, id) -> {
-                    String biomeId = biomeCache.getBiomeName(id);
+                    blocks.reset();
+                    section.blockPalette().getAll((x, sectionLocalY, z, blockStateId) ->
+                            blocks.add(x + sectionLocalY * 16 * 16 + z * 16, blockStateId));
 
-                    int paletteId = biomePalette.indexOf(biomeId);
-                    if (paletteId == -1) {
-                        paletteId = biomePalette.size();
-                        biomePalette.add(biomeId);
+                    // Strings are only produced once per distinct state in the section
+                    blockPalette = new String[blocks.size];
+                    for (int j = 0; j < blocks.size; j++) {
+                        blockPalette[j] = blockCache.getBlockState(blocks.values[j]);
                     }
+                    if (blocks.size > 1) blockData = blocks.pack();
 
-                    biomeData[x + z * 4 + y * 4 * 4] = paletteId;
-                });
+                    if (entries == null) scanBlockEntities(chunk, sectionY, blockEntities);
+                }
 
-                byte[] blockLight = section.blockLight().array();
-                if (blockLight.length != 2048) blockLight = null;
-                byte[] skyLight = section.skyLight().array();
-                if (skyLight.length != 2048) skyLight = null;
+                String[] biomePalette = new String[biomes.size];
+                for (int j = 0; j < biomes.size; j++) {
+                    biomePalette[j] = biomeCache.getBiomeName(biomes.values[j]);
+                }
+                long[] biomeData = biomes.size > 1 ? biomes.pack() : null;
 
-                sections[i] = new PolarSection(
-                        blockPalette.toArray(new String[0]), blockData,
-                        biomePalette.toArray(new String[0]), biomeData,
+                sections[i] = PolarSection.packed(
+                        blockPalette, blockData,
+                        biomePalette, biomeData,
                         blockLight, skyLight
                 );
             }
 
-            //todo heightmaps
+            // Only the heightmaps Minestom tracks, they are given back to the chunk when it is loaded
+            heightmaps[PolarChunk.heightmapIndex(PolarChunk.HEIGHTMAP_MOTION_BLOCKING)] = heightmapData(chunk.motionBlockingHeightmap());
+            heightmaps[PolarChunk.heightmapIndex(PolarChunk.HEIGHTMAP_WORLD_SURFACE)] = heightmapData(chunk.worldSurfaceHeightmap());
         }
 
         polarWorld.updateChunkAt(
@@ -139,20 +165,114 @@ public class MinestomPolarSaver {
         );
     }
 
-    private @NotNull String blockToString(@NotNull Block block) {
-        StringBuilder builder = new StringBuilder(block.name());
-        if (block.properties().isEmpty()) return builder.toString();
+    private static byte @NotNull [] heightmapData(@NotNull Heightmap heightmap) {
+        long[] data = heightmap.getNBT();
+        ByteBuffer buffer = ByteBuffer.allocate(data.length * Long.BYTES);
+        buffer.asLongBuffer().put(data);
+        return buffer.array();
+    }
+
+    /**
+     * Returns the light array to save, or null if the section has no light. Minestom light arrays are empty until
+     * the light was computed, a section which is entirely dark still has light. Uniform light is replaced by a
+     * shared array, which is written as {@link PolarSection#LIGHT_UNIFORM}.
+     */
+    private static byte @Nullable [] lightData(byte @NotNull [] light) {
+        if (light.length == 0) return null;
+        return LightUtil.share(light);
+    }
 
-        builder.append('[');
-        for (Map.Entry<String, String> entry : block.properties().entrySet()) {
-            builder.append(entry.getKey())
-                    .append('=')
-                    .append(entry.getValue())
-                    .append(',');
+    /**
+     * Returns the blocks of the chunk which may have a handler or nbt, by chunk block index, or null if the chunk
+     * does not track them and every block must be checked instead.
+     */
+    private static @Nullable Int2ObjectMap<Block> blockEntries(@NotNull Chunk chunk) {
+        if (DYNAMIC_CHUNK_ENTRIES == null || dynamicChunkEntriesFailed || !(chunk instanceof DynamicChunk)) return null;
+        try {
+            //noinspection unchecked
+            return (Int2ObjectMap<Block>) DYNAMIC_CHUNK_ENTRIES.get(chunk);
+        } catch (RuntimeException e) {
+            dynamicChunkEntriesFailed = true;
+            logger.warn("Unable to read block entities of dynamic chunks, every block will be checked when saving ({})", e.toString());
+            return null;
         }
-        builder.deleteCharAt(builder.length() - 1);
-        builder.append(']');
+    }
 
-        return builder.toString();
+    private static void scanBlockEntities(@NotNull Chunk chunk, int sectionY, @NotNull List<PolarChunk.BlockEntity> blockEntities) {
+        for (int sectionLocalY = 0; sectionLocalY < Chunk.CHUNK_SECTION_SIZE; sectionLocalY++) {
+            for (int z = 0; z < Chunk.CHUNK_SIZE_Z; z++) {
+                for (int x = 0; x < Chunk.CHUNK_SIZE_X; x++) {
+                    int y = sectionLocalY + sectionY * Chunk.CHUNK_SECTION_SIZE;
+                    Block block = chunk.getBlock(x, y, z, Block.Getter.Condition.CACHED);
+                    if (block == null) continue;
+                    addBlockEntity(blockEntities, x, y, z, block);
+                }
+            }
+        }
+    }
+
+    private static void addBlockEntity(@NotNull List<PolarChunk.BlockEntity> blockEntities, int x, int y, int z, @NotNull Block block) {
+        String handlerId = block.handler() == null ? null : block.handler().getNamespaceId().asString();
+        if (handlerId != null || block.hasNbt()) {
+            blockEntities.add(new PolarChunk.BlockEntity(
+                    x, y, z, handlerId, block.nbt()
+            ));
+        }
+    }
+
+    private static @Nullable VarHandle findDynamicChunkEntries() {
+        try {
+            return MethodHandles.privateLookupIn(DynamicChunk.class, MethodHandles.lookup())
+                    .findVarHandle(DynamicChunk.class, "entries", Int2ObjectOpenHashMap.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.warn("Unable to read block entities of dynamic chunks, every block will be checked when saving ({})", e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Builds a section palette from the ids of a Minestom palette, without allocating once warmed up.
+     */
+    private static final class PaletteBuilder {
+        private final Int2IntOpenHashMap indices = new Int2IntOpenHashMap();
+        private final int[] data;
+        private int[] values = new int[16];
+        private int size;
+
+        // Neighbouring entries are usually the same, which skips the map lookup.
+        private int lastValue, lastIndex;
+
+        PaletteBuilder(int dataSize) {
+            this.data = new int[dataSize];
+            this.indices.defaultReturnValue(-1);
+        }
+
+        void reset() {
+            indices.clear();
+            size = 0;
+            lastIndex = -1;
+        }
+
+        void add(int index, int value) {
+            if (lastIndex != -1 && value == lastValue) {
+                data[index] = lastIndex;
+                return;
+            }
+
+            int paletteIndex = indices.get(value);
+            if (paletteIndex == -1) {
+                paletteIndex = size;
+                indices.put(value, paletteIndex);
+                if (size == values.length) values = Arrays.copyOf(values, size * 2);
+                values[size++] = value;
+            }
+            data[index] = paletteIndex;
+            lastValue = value;
+            lastIndex = paletteIndex;
+        }
+
+        long[] pack() {
+            return PaletteUtil.pack(data, PaletteUtil.bitsPerEntry(size));
+        }
     }
 }
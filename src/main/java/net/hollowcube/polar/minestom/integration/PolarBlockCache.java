@@ -0,0 +1,92 @@
+package net.hollowcube.polar.minestom.integration;
+
+import net.minestom.server.command.builder.arguments.minecraft.ArgumentBlockState;
+import net.minestom.server.command.builder.exception.ArgumentSyntaxException;
+import net.minestom.server.instance.block.Block;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the block states of Polar palettes to Minestom state ids, and back. Parsing a block state is expensive,
+ * and worlds use the same few hundred states over and over, so each state is parsed (or formatted) once and the
+ * result is shared by every world using the cache.
+ * <p>
+ * The cache is bounded: once full, states which are not cached yet are resolved on every use.
+ */
+public class PolarBlockCache {
+    private static final Logger logger = LoggerFactory.getLogger(PolarBlockCache.class);
+
+    public static final int DEFAULT_MAX_SIZE = 16384;
+
+    /**
+     * The cache shared by every {@link InMemoryPolarWorld} unless another one is given.
+     */
+    public static final PolarBlockCache SHARED = new PolarBlockCache(DEFAULT_MAX_SIZE);
+
+    private final Map<String, Integer> stateIds = new ConcurrentHashMap<>();
+    private final Map<Integer, String> blockStates = new ConcurrentHashMap<>();
+    private final int maxSize;
+
+    public PolarBlockCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public int getStateId(@NotNull String blockState) {
+        Integer stateId = stateIds.get(blockState);
+        if (stateId != null) return stateId;
+
+        // Parsed outside the map, so concurrent loads of different states do not wait on each other.
+        stateId = computeStateId(blockState);
+        if (stateIds.size() < maxSize)
+            stateIds.putIfAbsent(blockState, stateId);
+        return stateId;
+    }
+
+    public @NotNull String getBlockState(int stateId) {
+        String blockState = blockStates.get(stateId);
+        if (blockState != null) return blockState;
+
+        blockState = computeBlockState(stateId);
+        if (blockStates.size() < maxSize)
+            blockStates.putIfAbsent(stateId, blockState);
+        return blockState;
+    }
+
+    protected int computeStateId(@NotNull String blockState) {
+        try {
+            //noinspection deprecation
+            return ArgumentBlockState.staticParse(blockState).stateId();
+        } catch (ArgumentSyntaxException e) {
+            // Cached like any other state, so an invalid state is only reported once.
+            logger.error("Failed to parse block state: {} ({})", blockState, e.getMessage());
+            return Block.AIR.stateId();
+        }
+    }
+
+    protected @NotNull String computeBlockState(int stateId) {
+        Block block = Block.fromStateId(stateId);
+        if (block == null) {
+            logger.error("Failed to find block state: {}", stateId);
+            block = Block.AIR;
+        }
+
+        StringBuilder builder = new StringBuilder(block.name());
+        if (block.properties().isEmpty()) return builder.toString();
+
+        builder.append('[');
+        for (Map.Entry<String, String> entry : block.properties().entrySet()) {
+            builder.append(entry.getKey())
+                    .append('=')
+                    .append(entry.getValue())
+                    .append(',');
+        }
+        builder.deleteCharAt(builder.length() - 1);
+        builder.append(']');
+
+        return builder.toString();
+    }
+}
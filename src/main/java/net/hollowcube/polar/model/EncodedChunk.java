@@ -0,0 +1,28 @@
+package net.hollowcube.polar.model;
+
+import net.hollowcube.polar.CompressionType;
+import net.hollowcube.polar.ZstdDictionary;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A chunk in the form it is written to a Polar world, so it can be written again without being re-encoded.
+ * <p>
+ * The data array is shared and must not be modified. Since {@link PolarWorld#VERSION_CHUNK_INDEX}, palettes refer
+ * to a string table, usually the {@link PolarWorld#strings()} of the world the chunk belongs to. The chunk keeps the
+ * table it was encoded with, so that it stays readable when the world starts a new table.
+ *
+ * @param version The format version the chunk was encoded with
+ * @param frameCompression The compression of the chunk frame, or null if the data is not a chunk frame
+ * @param dictionary The dictionary the chunk frame was compressed with, if any
+ * @param strings The string table the palettes refer to, empty before {@link PolarWorld#VERSION_CHUNK_INDEX}
+ * @param data The encoded chunk, or the chunk frame if {@code frameCompression} is set
+ */
+public record EncodedChunk(
+        short version,
+        @Nullable CompressionType frameCompression,
+        @Nullable ZstdDictionary dictionary,
+        @NotNull PolarStringTable strings,
+        byte @NotNull [] data
+) {
+}
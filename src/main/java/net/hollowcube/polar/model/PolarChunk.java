@@ -1,9 +1,11 @@
 package net.hollowcube.polar.model;
 
 
+import net.hollowcube.polar.util.PaletteUtil;
 import net.kyori.adventure.nbt.CompoundBinaryTag;
 import org.jetbrains.annotations.Nullable;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
@@ -35,9 +37,44 @@ public record PolarChunk(
             HEIGHTMAP_WORLD_SURFACE_WG,
     };
     public static final int HEIGHTMAP_BYTE_SIZE = 32;
+    // One height per column of the chunk
+    private static final int HEIGHTMAP_SIZE = 16 * 16;
 
-    public byte @Nullable [] heightmap(int type) {
-        return heightmaps[type];
+    /**
+     * Returns the heightmap at the given index of {@link #HEIGHTMAPS}, or null if the chunk does not have it.
+     * <p>
+     * Since {@link PolarWorld#VERSION_CHUNK_INDEX}, a heightmap is its packed long array, as in the vanilla chunk
+     * format, with each long written big-endian.
+     */
+    public byte @Nullable [] heightmap(int index) {
+        return heightmaps[index];
+    }
+
+    /**
+     * Returns the heightmap at the given index of {@link #HEIGHTMAPS} as its packed long array, or null if the
+     * chunk does not have it or it does not have the length of a heightmap for the given world height.
+     *
+     * @param height The height of the world in blocks
+     */
+    public long @Nullable [] heightmapData(int index, int height) {
+        byte[] heightmap = heightmaps[index];
+        if (heightmap == null) return null;
+
+        // Anything else was not written by this version or for this world height
+        int heightsPerLong = 64 / PaletteUtil.bitsPerEntry(height + 1);
+        int length = (HEIGHTMAP_SIZE + heightsPerLong - 1) / heightsPerLong;
+        if (heightmap.length != length * Long.BYTES) return null;
+
+        long[] data = new long[length];
+        ByteBuffer.wrap(heightmap).asLongBuffer().get(data);
+        return data;
+    }
+
+    /**
+     * Returns the index in {@link #HEIGHTMAPS} of the given heightmap type.
+     */
+    public static int heightmapIndex(int type) {
+        return Integer.numberOfTrailingZeros(type) + 1;
     }
 
     public record BlockEntity(
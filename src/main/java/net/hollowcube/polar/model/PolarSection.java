@@ -1,5 +1,6 @@
 package net.hollowcube.polar.model;
 
+import net.hollowcube.polar.util.PaletteUtil;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -9,19 +10,26 @@ import org.jetbrains.annotations.Nullable;
  * <p>
  * Marked as internal because of the use of mutable arrays. These arrays must _not_ be mutated.
  * This class should be considered immutable.
+ * <p>
+ * Palette data is kept packed, as it is written, so sections which are only read and written again never expand it.
  */
 @ApiStatus.Internal
 public class PolarSection {
     public static final int BLOCK_PALETTE_SIZE = 4096;
     public static final int BIOME_PALETTE_SIZE = 64;
 
+    // Encoding of each light array since PolarWorld#VERSION_CHUNK_INDEX
+    public static final int LIGHT_MISSING = 0;
+    public static final int LIGHT_FULL = 1;
+    public static final int LIGHT_UNIFORM = 2;
+
     private final boolean empty;
 
     private final String @NotNull [] blockPalette;
-    private final int @Nullable [] blockData;
+    private final long @Nullable [] blockData;
 
     private final String @NotNull [] biomePalette;
-    private final int @Nullable [] biomeData;
+    private final long @Nullable [] biomeData;
 
     // Both light arrays are present/missing together. you cannot have one without the other.
     private final byte @Nullable [] blockLight;
@@ -43,6 +51,16 @@ public class PolarSection {
             String @NotNull [] blockPalette, int @Nullable [] blockData,
             String @NotNull [] biomePalette, int @Nullable [] biomeData,
             byte @Nullable [] blockLight, byte @Nullable [] skyLight
+    ) {
+        this(blockPalette, blockData == null ? null : PaletteUtil.pack(blockData, PaletteUtil.bitsPerEntry(blockPalette.length)),
+                biomePalette, biomeData == null ? null : PaletteUtil.pack(biomeData, PaletteUtil.bitsPerEntry(biomePalette.length)),
+                blockLight, skyLight);
+    }
+
+    private PolarSection(
+            String @NotNull [] blockPalette, long @Nullable [] blockData,
+            String @NotNull [] biomePalette, long @Nullable [] biomeData,
+            byte @Nullable [] blockLight, byte @Nullable [] skyLight
     ) {
         this.empty = false;
 
@@ -55,6 +73,17 @@ public class PolarSection {
         this.skyLight = skyLight;
     }
 
+    /**
+     * Creates a section from palette data which is already packed, see {@link #packedBlockData()}.
+     */
+    public static @NotNull PolarSection packed(
+            String @NotNull [] blockPalette, long @Nullable [] blockData,
+            String @NotNull [] biomePalette, long @Nullable [] biomeData,
+            byte @Nullable [] blockLight, byte @Nullable [] skyLight
+    ) {
+        return new PolarSection(blockPalette, blockData, biomePalette, biomeData, blockLight, skyLight);
+    }
+
     public boolean isEmpty() {
         return empty;
     }
@@ -65,9 +94,26 @@ public class PolarSection {
 
     /**
      * Returns the uncompressed palette data. Each int corresponds to an index in the palette.
-     * Always has a length of 4096.
+     * Always has a length of 4096. The data is unpacked on each call, prefer {@link #unpackBlockData(int[])}.
      */
     public int[] blockData() {
+        int[] data = new int[BLOCK_PALETTE_SIZE];
+        unpackBlockData(data);
+        return data;
+    }
+
+    /**
+     * Unpacks the palette data into the given array, which must have a length of 4096.
+     */
+    public void unpackBlockData(int @NotNull [] out) {
+        assert blockData != null : "must check length of blockPalette() before using blockData()";
+        PaletteUtil.unpack(out, blockData, PaletteUtil.bitsPerEntry(blockPalette.length));
+    }
+
+    /**
+     * Returns the palette data packed as it is written, with as many whole entries in each long as fit.
+     */
+    public long[] packedBlockData() {
         assert blockData != null : "must check length of blockPalette() before using blockData()";
         return blockData;
     }
@@ -78,9 +124,26 @@ public class PolarSection {
 
     /**
      * Returns the uncompressed palette data. Each int corresponds to an index in the palette.
-     * Always has a length of 256.
+     * Always has a length of 64. The data is unpacked on each call, prefer {@link #unpackBiomeData(int[])}.
      */
     public int[] biomeData() {
+        int[] data = new int[BIOME_PALETTE_SIZE];
+        unpackBiomeData(data);
+        return data;
+    }
+
+    /**
+     * Unpacks the palette data into the given array, which must have a length of 64.
+     */
+    public void unpackBiomeData(int @NotNull [] out) {
+        assert biomeData != null : "must check length of biomePalette() before using biomeData()";
+        PaletteUtil.unpack(out, biomeData, PaletteUtil.bitsPerEntry(biomePalette.length));
+    }
+
+    /**
+     * Returns the palette data packed as it is written, with as many whole entries in each long as fit.
+     */
+    public long[] packedBiomeData() {
         assert biomeData != null : "must check length of biomePalette() before using biomeData()";
         return biomeData;
     }
@@ -0,0 +1,86 @@
+package net.hollowcube.polar.model;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The block states and biomes used by a world. Since {@link PolarWorld#VERSION_CHUNK_INDEX}, section palettes
+ * are written as indices into this table rather than as strings, so each string is stored and read once per world.
+ * <p>
+ * The table is append-only, an index stays valid for the life of the table. Worlds start a new table when too many
+ * of its strings may no longer be used, see {@link PolarWorld#stringsForWrite()}. It is safe for concurrent use.
+ */
+public final class PolarStringTable {
+    private final Map<String, Integer> indices = new ConcurrentHashMap<>();
+    // Entries are written before the size is published, and never change afterward.
+    private volatile String[] strings;
+    private volatile int size;
+
+    public PolarStringTable() {
+        this(new String[0]);
+    }
+
+    public PolarStringTable(String @NotNull [] strings) {
+        this.strings = Arrays.copyOf(strings, Math.max(16, strings.length));
+        this.size = strings.length;
+        for (int i = 0; i < strings.length; i++) {
+            indices.putIfAbsent(strings[i], i);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public @NotNull String get(int index) {
+        int size = this.size;
+        String[] strings = this.strings;
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException(index);
+        return strings[index];
+    }
+
+    /**
+     * Returns the index of the given string, adding it to the end of the table if it is not present.
+     */
+    public int indexOf(@NotNull String value) {
+        Integer index = indices.get(value);
+        if (index != null) return index;
+
+        synchronized (this) {
+            index = indices.get(value);
+            if (index != null) return index;
+            return append(value);
+        }
+    }
+
+    /**
+     * Adds the given string to the end of the table, even if it is already present, and returns its index.
+     * Used when reading a table, where the index of every string was chosen by the writer.
+     */
+    public synchronized int add(@NotNull String value) {
+        return append(value);
+    }
+
+    private int append(@NotNull String value) {
+        int next = size;
+        String[] strings = this.strings;
+        if (next == strings.length)
+            this.strings = strings = Arrays.copyOf(strings, next * 2);
+        strings[next] = value;
+        size = next + 1;
+        indices.putIfAbsent(value, next);
+        return next;
+    }
+
+    /**
+     * Returns the strings currently in the table, in order.
+     */
+    public String @NotNull [] toArray() {
+        int size = this.size;
+        return Arrays.copyOf(strings, size);
+    }
+}
@@ -1,15 +1,28 @@
 package net.hollowcube.polar.model;
 
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import net.hollowcube.polar.CompressionType;
+import net.hollowcube.polar.ZstdDictionary;
+import net.hollowcube.polar.PolarChunkIndex;
+import net.hollowcube.polar.PolarFormat;
+import net.hollowcube.polar.PolarReader;
+import net.hollowcube.polar.PolarWriter;
 import net.minestom.server.coordinate.CoordConversion;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
@@ -17,28 +30,64 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  */
 @SuppressWarnings("UnstableApiUsage")
 public class PolarWorld {
-    public static final short LATEST_VERSION = 5;
+    public static final short LATEST_VERSION = 6;
 
     public static final short VERSION_UNIFIED_LIGHT = 1;
     public static final short VERSION_USERDATA_OPT_BLOCK_ENT_NBT = 2;
     public static final short VERSION_MINESTOM_NBT_READ_BREAK = 3;
     public static final short VERSION_WORLD_USERDATA = 4;
     public static final short VERSION_SHORT_GRASS = 5; // >:(
+    public static final short VERSION_CHUNK_INDEX = 6;
 
     public static CompressionType DEFAULT_COMPRESSION = CompressionType.ZSTD;
+    public static final int DEFAULT_COMPRESSION_LEVEL = 0;
+    public static final long NO_MEMORY_BUDGET = 0;
+
+    // Strings a table may grow by before it is compacted, on top of a quarter of its size, so that small tables
+    // are not replaced, and every chunk encoded again, over a few new blocks.
+    private static final int STRING_TABLE_SLACK = 64;
 
     // Polar metadata
     private final short version;
     private CompressionType compression;
+    private int compressionLevel = DEFAULT_COMPRESSION_LEVEL;
+    private boolean chunkFrames;
+    private volatile @Nullable ZstdDictionary zstdDictionary;
 
     // World metadata
     private final byte minSection;
     private final byte maxSection;
 
-    // Chunk data
-    private final Long2ObjectMap<PolarChunk> chunks = new Long2ObjectOpenHashMap<>();
+    // Block states and biomes referenced by encoded chunks, replaced by a new table when compacted on write.
+    // The size of the table after it was last compacted is guarded by the chunks lock.
+    private volatile PolarStringTable strings;
+    private int compactedStrings;
+
+    // Chunk data, in access order when the world has a memory budget
+    private final Long2ObjectLinkedOpenHashMap<PolarChunk> chunks = new Long2ObjectLinkedOpenHashMap<>();
     private final ReentrantReadWriteLock chunksLock = new ReentrantReadWriteLock();
 
+    // Lazy chunk data, chunks which have not been updated since being read are decoded from the index on access.
+    private final @Nullable PolarChunkIndex index;
+    private final LongSet indexedChunks;
+    private final boolean retainDecoded;
+
+    // Encoded form of chunks which have not been updated since they were last written, reused by the writer.
+    // Eager worlds do not keep it next to the decoded chunks unless asked to, or bounded by a memory budget.
+    private final Long2ObjectMap<EncodedChunk> encodedChunks = new Long2ObjectOpenHashMap<>();
+    private volatile boolean encodedChunkCache;
+
+    // Memory budget of the decoded chunks. Dirty chunks which are evicted keep their encoded form in the
+    // encoded chunks, and stay dirty until written. Guarded by the chunks lock, except the statistics.
+    private volatile long memoryBudget = NO_MEMORY_BUDGET;
+    private long decodedSize = 0;
+    private long evictingSize = 0;
+    private final LongSet evictingChunks = new LongOpenHashSet();
+    private final LongSet evictedChunks = new LongOpenHashSet();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
     public PolarWorld() {
         this(LATEST_VERSION, DEFAULT_COMPRESSION, (byte) -4, (byte) 19, List.of());
     }
@@ -57,8 +106,39 @@ public class PolarWorld {
 
         for (PolarChunk chunk : chunks) {
             long index = CoordConversion.chunkIndex(chunk.x(), chunk.z());
-            this.chunks.put(index, chunk);
+            putChunk(index, chunk);
         }
+
+        this.strings = new PolarStringTable();
+        this.index = null;
+        this.indexedChunks = new LongOpenHashSet();
+        this.retainDecoded = true;
+        this.encodedChunkCache = false;
+    }
+
+    /**
+     * Creates a lazy world, where chunks stay in their encoded form inside the index until they are accessed.
+     *
+     * @param index The index of the world to read chunks from
+     * @param retainDecoded Whether decoded chunks should be kept in memory after the first access. If false,
+     *                      chunks are decoded again on every access until they are updated.
+     */
+    public PolarWorld(@NotNull PolarChunkIndex index, boolean retainDecoded) {
+        this.version = index.version();
+        this.compression = index.compression();
+        this.chunkFrames = index.chunkFrames();
+        this.zstdDictionary = index.zstdDictionary();
+
+        this.minSection = index.minSection();
+        this.maxSection = index.maxSection();
+
+        // Indexed chunks refer to the strings of the index, which the world keeps adding to.
+        this.strings = index.strings();
+        this.compactedStrings = index.strings().size();
+        this.index = index;
+        this.indexedChunks = new LongOpenHashSet(index.chunkIndices());
+        this.retainDecoded = retainDecoded;
+        this.encodedChunkCache = true;
     }
 
     public short version() {
@@ -72,6 +152,47 @@ public class PolarWorld {
         this.compression = compression;
     }
 
+    /**
+     * The level the world is compressed at when it is written, {@link #DEFAULT_COMPRESSION_LEVEL} for the default
+     * of the compression type. Higher levels compress better and slower, without slowing down decompression much.
+     * <ul>
+     *     <li>{@link CompressionType#ZSTD}: 1 to 22, or negative for faster levels</li>
+     *     <li>{@link CompressionType#LZ4}: 1 to 17 use the high compression mode</li>
+     * </ul>
+     * The level is not stored in the world. Chunks which were not updated keep the level they were compressed with.
+     */
+    public int compressionLevel() {
+        return compressionLevel;
+    }
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Whether each chunk is compressed in its own frame, rather than compressing the world as a whole.
+     * Chunk frames can be compressed and decompressed in parallel, and lazy worlds only decompress the
+     * chunks which are accessed, at the cost of a somewhat worse compression ratio.
+     */
+    public boolean chunkFrames() {
+        return chunkFrames;
+    }
+    public void setChunkFrames(boolean chunkFrames) {
+        this.chunkFrames = chunkFrames;
+    }
+
+    /**
+     * The dictionary which chunk frames are compressed with when using {@link CompressionType#ZSTD}, or null to
+     * compress them without one. The dictionary is written with the world.
+     * <p>
+     * Changing the dictionary means every chunk frame is compressed again on the next write.
+     */
+    public @Nullable ZstdDictionary zstdDictionary() {
+        return zstdDictionary;
+    }
+    public void setZstdDictionary(@Nullable ZstdDictionary zstdDictionary) {
+        this.zstdDictionary = zstdDictionary;
+    }
+
     public byte minSection() {
         return minSection;
     }
@@ -80,29 +201,480 @@ public class PolarWorld {
         return maxSection;
     }
 
-    public @Nullable PolarChunk chunkAt(int x, int z) {
+    /**
+     * The estimated size in bytes that decoded chunks may use, or {@link #NO_MEMORY_BUDGET} to keep them all.
+     * <p>
+     * Once over budget, the least recently used chunks are evicted to their encoded form, compressed with the
+     * {@link #compression()} of the world, and decoded again when accessed. Chunks which have an encoded form are
+     * dropped as soon as the world goes over budget. Dirty chunks are only evicted by {@link #evictChunks}, which
+     * encodes them and is called by the loaders on their save executor, they stay dirty until the world is written.
+     */
+    public long memoryBudget() {
+        return memoryBudget;
+    }
+    public void setMemoryBudget(long memoryBudget) {
+        if (memoryBudget < 0) throw new IllegalArgumentException("Invalid memory budget: " + memoryBudget);
+        this.memoryBudget = memoryBudget;
+        evict(null);
+    }
+
+    /**
+     * Evicts the least recently used decoded chunks until the world is within its {@link #memoryBudget()},
+     * encoding dirty chunks with the given writer. Encoding is about as expensive as writing the chunks, so this
+     * is meant to be called off the tick thread, typically after chunks were saved into the world.
+     */
+    public void evictChunks(@NotNull PolarWriter writer) {
+        evict(writer);
+    }
+
+    /**
+     * Whether the encoded form of each chunk is kept after it was written, so that following writes only encode the
+     * chunks which were updated in the meantime, see {@link #isDirty(int, int)}.
+     * <p>
+     * Enabled by default for lazy worlds, where the encoded form is what the world holds anyway. Eager worlds keep
+     * every chunk decoded, so by default they do not hold the encoded form as well unless they have a
+     * {@link #memoryBudget()}, and every write encodes every chunk again. Disabling the cache drops the encoded form
+     * of the decoded chunks, which makes them dirty.
+     */
+    public boolean encodedChunkCache() {
+        return encodedChunkCache;
+    }
+    public void setEncodedChunkCache(boolean encodedChunkCache) {
+        chunksLock.writeLock().lock();
+        try {
+            this.encodedChunkCache = encodedChunkCache;
+            if (cachesEncodedChunks()) return;
+
+            // Chunks which are only held encoded, or were evicted while dirty, have no other form to fall back to.
+            encodedChunks.keySet().removeIf(chunkIndex -> chunks.containsKey(chunkIndex) && !evictedChunks.contains(chunkIndex));
+        } finally {
+            chunksLock.writeLock().unlock();
+        }
+    }
+
+    private boolean cachesEncodedChunks() {
+        return encodedChunkCache || memoryBudget != NO_MEMORY_BUDGET;
+    }
+
+    /**
+     * Returns the statistics of the decoded chunks of the world, see {@link ChunkCacheStats}.
+     */
+    public @NotNull ChunkCacheStats chunkCacheStats() {
+        long size;
         chunksLock.readLock().lock();
         try {
-            return chunks.getOrDefault(CoordConversion.chunkIndex(x, z), null);
+            size = decodedSize;
         } finally {
             chunksLock.readLock().unlock();
         }
+        return new ChunkCacheStats(hits.sum(), misses.sum(), evictions.sum(), size);
+    }
+
+    /**
+     * The string table which chunks of this world are encoded with. Chunks encoded before the world started a new
+     * table keep referring to the previous one, see {@link EncodedChunk#strings()}.
+     */
+    public @NotNull PolarStringTable strings() {
+        return strings;
+    }
+
+    /**
+     * Returns the string table a full write of the world encodes its chunks with, starting a new table if the
+     * current one grew by more than a quarter since it was last compacted. Strings are never removed from a table,
+     * so this drops the strings of blocks and biomes which are no longer used.
+     * <p>
+     * Chunks encoded with a previous table are encoded again by the write, which is why the table is only
+     * replaced once it grew enough, or when every chunk is encoded anyway.
+     */
+    public @NotNull PolarStringTable stringsForWrite() {
+        chunksLock.writeLock().lock();
+        try {
+            boolean encoded = !encodedChunks.isEmpty() || !indexedChunks.isEmpty();
+            if (encoded && strings.size() <= compactedStrings + compactedStrings / 4 + STRING_TABLE_SLACK)
+                return strings;
+
+            strings = new PolarStringTable();
+            compactedStrings = -1;
+            return strings;
+        } finally {
+            chunksLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Records that a full write with the table returned by {@link #stringsForWrite()} completed, so the size of a
+     * new table is known once all its strings were added.
+     */
+    public void stringsWritten(@NotNull PolarStringTable table) {
+        chunksLock.writeLock().lock();
+        try {
+            if (strings == table && compactedStrings == -1)
+                compactedStrings = table.size();
+        } finally {
+            chunksLock.writeLock().unlock();
+        }
+    }
+
+    public @Nullable PolarChunk chunkAt(int x, int z) {
+        long chunkIndex = CoordConversion.chunkIndex(x, z);
+        EncodedChunk encoded;
+        // With a memory budget every access moves the chunk to the end of the access order.
+        boolean bounded = memoryBudget != NO_MEMORY_BUDGET;
+        Lock lock = bounded ? chunksLock.writeLock() : chunksLock.readLock();
+        lock.lock();
+        try {
+            PolarChunk chunk = bounded ? chunks.getAndMoveToLast(chunkIndex) : chunks.get(chunkIndex);
+            if (chunk != null) {
+                hits.increment();
+                return chunk;
+            }
+            encoded = encodedChunks.get(chunkIndex);
+            if (encoded == null && !indexedChunks.contains(chunkIndex))
+                return null;
+        } finally {
+            lock.unlock();
+        }
+
+        // Decoding does not need the lock, encoded chunks and the index are immutable.
+        misses.increment();
+        PolarChunk chunk = decode(x, z, encoded);
+        if (chunk == null || !retainDecoded) return chunk;
+
+        chunksLock.writeLock().lock();
+        try {
+            // The chunk may have been updated or decoded by another thread in the meantime.
+            if (!isEncoded(chunkIndex)) return chunks.get(chunkIndex);
+            PolarChunk existing = chunks.get(chunkIndex);
+            if (existing != null) return existing;
+            putChunk(chunkIndex, chunk);
+        } finally {
+            chunksLock.writeLock().unlock();
+        }
+        evict(null);
+        return chunk;
     }
     public void updateChunkAt(int x, int z, @NotNull PolarChunk chunk) {
+        long chunkIndex = CoordConversion.chunkIndex(x, z);
         chunksLock.writeLock().lock();
         try {
-            chunks.put(CoordConversion.chunkIndex(x, z), chunk);
+            putChunk(chunkIndex, chunk);
+            indexedChunks.remove(chunkIndex);
+            encodedChunks.remove(chunkIndex);
+            evictedChunks.remove(chunkIndex);
         } finally {
             chunksLock.writeLock().unlock();
         }
+        evict(null);
     }
 
+    /**
+     * Replaces a chunk with one which is already encoded, for example as read from storage. The chunk is not
+     * dirty afterward, it is decoded from the given form when accessed.
+     */
+    public void updateChunkAt(int x, int z, @NotNull EncodedChunk chunk) {
+        long chunkIndex = CoordConversion.chunkIndex(x, z);
+        chunksLock.writeLock().lock();
+        try {
+            removeChunk(chunkIndex);
+            indexedChunks.remove(chunkIndex);
+            encodedChunks.put(chunkIndex, chunk);
+            evictedChunks.remove(chunkIndex);
+        } finally {
+            chunksLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns whether the chunk was updated since it was read or last written, meaning it has no encoded form
+     * and will be encoded again by the next write, or it was encoded when evicted but not written yet.
+     */
+    public boolean isDirty(int x, int z) {
+        long chunkIndex = CoordConversion.chunkIndex(x, z);
+        chunksLock.readLock().lock();
+        try {
+            return evictedChunks.contains(chunkIndex) || (chunks.containsKey(chunkIndex) && !isEncoded(chunkIndex));
+        } finally {
+            chunksLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the encoded form of a chunk which was not updated since it was read or last written, or null if the
+     * chunk is dirty or not in the world. Dirty chunks which were evicted also return the form they were evicted to.
+     */
+    public @Nullable EncodedChunk encodedChunkAt(int x, int z) {
+        long chunkIndex = CoordConversion.chunkIndex(x, z);
+        chunksLock.readLock().lock();
+        try {
+            EncodedChunk encoded = encodedChunks.get(chunkIndex);
+            if (encoded != null || !indexedChunks.contains(chunkIndex))
+                return encoded;
+        } finally {
+            chunksLock.readLock().unlock();
+        }
+
+        assert index != null;
+        return index.encodedChunk(x, z);
+    }
+
+    /**
+     * Records the encoded form of a chunk after it was written, so that following writes can reuse it.
+     * <p>
+     * The encoded form is discarded if the chunk was updated while it was being encoded: {@code source} must be
+     * the chunk which was encoded. Worlds which do not retain decoded chunks drop the decoded form of the chunk,
+     * it is decoded again from the encoded form when accessed.
+     */
+    public void cacheEncodedChunk(int x, int z, @NotNull PolarChunk source, @NotNull EncodedChunk encoded) {
+        long chunkIndex = CoordConversion.chunkIndex(x, z);
+        chunksLock.writeLock().lock();
+        try {
+            // A chunk which is no longer decoded was either released, or updated and evicted since.
+            PolarChunk current = chunks.get(chunkIndex);
+            boolean unchanged = current == source
+                    || (current == null && isEncoded(chunkIndex) && !evictedChunks.contains(chunkIndex));
+            if (unchanged) putEncodedChunk(chunkIndex, encoded);
+        } finally {
+            chunksLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Records the encoded form of a chunk after it was written, when it was converted from the form returned by
+     * {@link #encodedChunkAt(int, int)}, or is that same form. The encoded form is discarded if the chunk was
+     * updated since {@code previous} was returned.
+     */
+    public void cacheEncodedChunk(int x, int z, @NotNull EncodedChunk previous, @NotNull EncodedChunk encoded) {
+        long chunkIndex = CoordConversion.chunkIndex(x, z);
+        chunksLock.writeLock().lock();
+        try {
+            // Chunks of the index have no encoded form of their own, they are never replaced by another index.
+            EncodedChunk current = encodedChunks.get(chunkIndex);
+            boolean unchanged = current != null ? current == previous : indexedChunks.contains(chunkIndex);
+            if (unchanged) putEncodedChunk(chunkIndex, encoded);
+        } finally {
+            chunksLock.writeLock().unlock();
+        }
+    }
+
+    private void putEncodedChunk(long chunkIndex, @NotNull EncodedChunk encoded) {
+        // Without the cache the encoded form is only kept for chunks which have no decoded form.
+        if (!cachesEncodedChunks() && retainDecoded && chunks.containsKey(chunkIndex)) {
+            encodedChunks.remove(chunkIndex);
+            evictedChunks.remove(chunkIndex);
+            return;
+        }
+        encodedChunks.put(chunkIndex, encoded);
+        evictedChunks.remove(chunkIndex);
+        if (!retainDecoded) removeChunk(chunkIndex);
+    }
+
+    /**
+     * Drops the decoded form of a chunk, if it can be decoded again from its encoded form.
+     * Chunks which were updated since being read or written are always kept.
+     */
+    public void releaseChunk(int x, int z) {
+        long chunkIndex = CoordConversion.chunkIndex(x, z);
+        chunksLock.writeLock().lock();
+        try {
+            if (isEncoded(chunkIndex))
+                removeChunk(chunkIndex);
+        } finally {
+            chunksLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the {@link CoordConversion#chunkIndex(int, int)} of every chunk in the world, without decoding
+     * any chunk of a lazy world.
+     */
+    public @NotNull LongList chunkIndices() {
+        chunksLock.readLock().lock();
+        try {
+            LongSet result = new LongOpenHashSet(chunks.size() + encodedChunks.size() + indexedChunks.size());
+            result.addAll(chunks.keySet());
+            result.addAll(encodedChunks.keySet());
+            result.addAll(indexedChunks);
+            return new LongArrayList(result);
+        } finally {
+            chunksLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the {@link CoordConversion#chunkIndex(int, int)} of every dirty chunk, see {@link #isDirty(int, int)}.
+     */
+    public @NotNull LongList dirtyChunkIndices() {
+        chunksLock.readLock().lock();
+        try {
+            LongList result = new LongArrayList();
+            chunks.keySet().forEach(chunkIndex -> {
+                if (!isEncoded(chunkIndex)) result.add(chunkIndex);
+            });
+            result.addAll(evictedChunks);
+            return result;
+        } finally {
+            chunksLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns every chunk in the world. Chunks which are only held in their encoded form are decoded
+     * for this call, but not retained.
+     */
     public @NotNull Collection<PolarChunk> chunks() {
+        List<PolarChunk> result;
+        long[] pending;
+        EncodedChunk[] pendingEncoded;
         chunksLock.readLock().lock();
         try {
-            return new ArrayList<>(chunks.values());
+            result = new ArrayList<>(chunks.size() + encodedChunks.size() + indexedChunks.size());
+            result.addAll(chunks.values());
+            LongSet pendingSet = new LongOpenHashSet(encodedChunks.keySet());
+            pendingSet.addAll(indexedChunks);
+            pendingSet.removeAll(chunks.keySet());
+            pending = pendingSet.toLongArray();
+            pendingEncoded = new EncodedChunk[pending.length];
+            for (int i = 0; i < pending.length; i++)
+                pendingEncoded[i] = encodedChunks.get(pending[i]);
         } finally {
             chunksLock.readLock().unlock();
         }
+
+        for (int i = 0; i < pending.length; i++) {
+            PolarChunk chunk = decode(CoordConversion.chunkIndexGetX(pending[i]),
+                    CoordConversion.chunkIndexGetZ(pending[i]), pendingEncoded[i]);
+            if (chunk != null) result.add(chunk);
+        }
+        return result;
+    }
+
+    private boolean isEncoded(long chunkIndex) {
+        return encodedChunks.containsKey(chunkIndex) || indexedChunks.contains(chunkIndex);
+    }
+
+    // Decoded chunks are only added and removed through these while holding the write lock, to track their size.
+
+    private void putChunk(long chunkIndex, @NotNull PolarChunk chunk) {
+        PolarChunk previous = chunks.putAndMoveToLast(chunkIndex, chunk);
+        if (previous != null) decodedSize -= estimateSize(previous);
+        decodedSize += estimateSize(chunk);
+    }
+
+    private void removeChunk(long chunkIndex) {
+        PolarChunk removed = chunks.remove(chunkIndex);
+        if (removed != null) decodedSize -= estimateSize(removed);
+    }
+
+    /**
+     * Evicts the least recently used decoded chunks until the world is within its memory budget. Chunks which
+     * have an encoded form are dropped, dirty chunks are encoded first, outside the lock, if a writer is given
+     * and kept otherwise.
+     */
+    private void evict(@Nullable PolarWriter writer) {
+        long budget = memoryBudget;
+        if (budget == NO_MEMORY_BUDGET) return;
+
+        LongList dirtyIndices = new LongArrayList();
+        List<PolarChunk> dirtyChunks = new ArrayList<>();
+        chunksLock.writeLock().lock();
+        try {
+            long excess = decodedSize - evictingSize - budget;
+            Iterator<Long2ObjectMap.Entry<PolarChunk>> iterator = chunks.long2ObjectEntrySet().fastIterator();
+            while (excess > 0 && iterator.hasNext()) {
+                Long2ObjectMap.Entry<PolarChunk> entry = iterator.next();
+                long chunkIndex = entry.getLongKey();
+                PolarChunk chunk = entry.getValue();
+                long size = estimateSize(chunk);
+                if (isEncoded(chunkIndex)) {
+                    iterator.remove();
+                    decodedSize -= size;
+                    excess -= size;
+                    evictions.increment();
+                } else if (writer != null && evictingChunks.add(chunkIndex)) {
+                    // Chunks already being evicted by another thread are skipped.
+                    dirtyIndices.add(chunkIndex);
+                    dirtyChunks.add(chunk);
+                    evictingSize += size;
+                    excess -= size;
+                }
+            }
+        } finally {
+            chunksLock.writeLock().unlock();
+        }
+
+        CompressionType frameCompression = compression == CompressionType.NONE ? null : compression;
+        for (int i = 0; i < dirtyChunks.size(); i++) {
+            long chunkIndex = dirtyIndices.getLong(i);
+            PolarChunk chunk = dirtyChunks.get(i);
+            EncodedChunk encoded = null;
+            try {
+                encoded = writer.encodeChunk(this, chunk, frameCompression);
+            } finally {
+                chunksLock.writeLock().lock();
+                try {
+                    evictingChunks.remove(chunkIndex);
+                    evictingSize -= estimateSize(chunk);
+                    // The chunk is kept if it was updated or written in the meantime.
+                    if (encoded != null && chunks.get(chunkIndex) == chunk && !isEncoded(chunkIndex)) {
+                        removeChunk(chunkIndex);
+                        encodedChunks.put(chunkIndex, encoded);
+                        evictedChunks.add(chunkIndex);
+                        evictions.increment();
+                    }
+                } finally {
+                    chunksLock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Estimates the memory used by a decoded chunk, counting its arrays but not the strings of its palettes,
+     * which are shared with the string table.
+     */
+    private static long estimateSize(@NotNull PolarChunk chunk) {
+        long size = 64 + arraySize(chunk.sections().length, 8);
+        for (PolarSection section : chunk.sections()) {
+            size += 48 + arraySize(section.blockPalette().length, 8) + arraySize(section.biomePalette().length, 8);
+            if (section.blockPalette().length > 1) size += arraySize(section.packedBlockData().length, 8);
+            if (section.biomePalette().length > 1) size += arraySize(section.packedBiomeData().length, 8);
+            if (section.hasBlockLightData()) size += arraySize(section.blockLight().length, 1);
+            if (section.hasSkyLightData()) size += arraySize(section.skyLight().length, 1);
+        }
+        // Block entity data is not measured, it is usually small and its size is not known without walking it.
+        size += chunk.blockEntities().size() * 128L;
+        size += arraySize(chunk.heightmaps().length, 8);
+        for (byte[] heightmap : chunk.heightmaps()) {
+            if (heightmap != null) size += arraySize(heightmap.length, 1);
+        }
+        if (chunk.userData() != null) size += arraySize(chunk.userData().length, 1);
+        return size;
+    }
+
+    private static long arraySize(int length, int elementSize) {
+        return 16 + (long) length * elementSize;
+    }
+
+    /**
+     * Statistics of the decoded chunks of a world, see {@link PolarWorld#memoryBudget()}. Hits and misses count
+     * the accesses through {@link PolarWorld#chunkAt(int, int)}, where a miss means the chunk was decoded.
+     *
+     * @param evictions The number of decoded chunks evicted to stay within the memory budget
+     * @param decodedSize The estimated size in bytes of the decoded chunks currently held
+     */
+    public record ChunkCacheStats(long hits, long misses, long evictions, long decodedSize) {
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+    }
+
+    private @Nullable PolarChunk decode(int x, int z, @Nullable EncodedChunk encoded) {
+        if (encoded != null) {
+            PolarReader reader = index != null ? index.reader() : PolarFormat.READER;
+            return reader.readChunk(encoded, maxSection - minSection + 1);
+        }
+        assert index != null;
+        return index.readChunk(x, z);
     }
 }
@@ -0,0 +1,45 @@
+package net.hollowcube.polar.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+public final class LightUtil {
+    private LightUtil() {}
+
+    public static final int LIGHT_SIZE = 2048;
+
+    // Shared by every section with uniform light, these arrays must not be modified.
+    private static final byte[][] UNIFORM = new byte[16][];
+
+    static {
+        for (int level = 0; level < UNIFORM.length; level++) {
+            UNIFORM[level] = new byte[LIGHT_SIZE];
+            Arrays.fill(UNIFORM[level], (byte) (level | level << 4));
+        }
+    }
+
+    /**
+     * Returns the shared light array with every block at the given level.
+     */
+    public static byte @NotNull [] uniform(int level) {
+        return UNIFORM[level];
+    }
+
+    /**
+     * Returns the level of every block of the given light array, or -1 if it is not uniform.
+     */
+    public static int uniformLevel(byte @NotNull [] light) {
+        if (light.length != LIGHT_SIZE) return -1;
+        int level = light[0] & 0xF;
+        return Arrays.equals(light, UNIFORM[level]) ? level : -1;
+    }
+
+    /**
+     * Returns the shared array if the given light array is uniform, otherwise the array itself.
+     */
+    public static byte @NotNull [] share(byte @NotNull [] light) {
+        int level = uniformLevel(light);
+        return level == -1 ? light : UNIFORM[level];
+    }
+}
@@ -3,36 +3,88 @@ package net.hollowcube.polar.util;
 public final class PaletteUtil {
     private PaletteUtil() {}
 
+    /**
+     * Returns the number of bits needed for each entry of a palette of the given size, at least 1.
+     */
+    public static int bitsPerEntry(int paletteSize) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(paletteSize - 1));
+    }
+
     public static long[] pack(int[] ints, int bitsPerEntry) {
-        int intsPerLong = (int) Math.floor(64d / bitsPerEntry);
-        long[] longs = new long[(int) Math.ceil(ints.length / (double) intsPerLong)];
+        int intsPerLong = 64 / bitsPerEntry;
+        long[] longs = new long[(ints.length + intsPerLong - 1) / intsPerLong];
 
-        long mask = (1L << bitsPerEntry) - 1L;
-        for (int i = 0; i < longs.length; i++) {
-            for (int intIndex = 0; intIndex < intsPerLong; intIndex++) {
-                int bitIndex = intIndex * bitsPerEntry;
-                int intActualIndex = intIndex + i * intsPerLong;
-                if (intActualIndex < ints.length) {
-                    longs[i] |= (ints[intActualIndex] & mask) << bitIndex;
-                }
-            }
+        // Each case calls the kernel with a constant, so it is compiled with constant shifts and trip counts.
+        switch (bitsPerEntry) {
+            case 1 -> pack(longs, ints, 1, 64);
+            case 2 -> pack(longs, ints, 2, 32);
+            case 3 -> pack(longs, ints, 3, 21);
+            case 4 -> pack(longs, ints, 4, 16);
+            case 5 -> pack(longs, ints, 5, 12);
+            case 6 -> pack(longs, ints, 6, 10);
+            case 7 -> pack(longs, ints, 7, 9);
+            case 8 -> pack(longs, ints, 8, 8);
+            default -> pack(longs, ints, bitsPerEntry, intsPerLong);
         }
-
         return longs;
     }
 
     public static void unpack(int[] out, long[] in, int bitsPerEntry) {
         assert in.length != 0: "unpack input array is zero";
 
-        double intsPerLong = Math.floor(64d / bitsPerEntry);
-        int intsPerLongCeil = (int) Math.ceil(intsPerLong);
+        switch (bitsPerEntry) {
+            case 1 -> unpack(out, in, 1, 64);
+            case 2 -> unpack(out, in, 2, 32);
+            case 3 -> unpack(out, in, 3, 21);
+            case 4 -> unpack(out, in, 4, 16);
+            case 5 -> unpack(out, in, 5, 12);
+            case 6 -> unpack(out, in, 6, 10);
+            case 7 -> unpack(out, in, 7, 9);
+            case 8 -> unpack(out, in, 8, 8);
+            default -> unpack(out, in, bitsPerEntry, 64 / bitsPerEntry);
+        }
+    }
 
+    private static void pack(long[] longs, int[] ints, int bitsPerEntry, int intsPerLong) {
         long mask = (1L << bitsPerEntry) - 1L;
-        for (int i = 0; i < out.length; i++) {
-            int longIndex = i / intsPerLongCeil;
-            int subIndex = i % intsPerLongCeil;
+        int full = ints.length / intsPerLong;
+        for (int i = 0; i < full; i++) {
+            int start = i * intsPerLong;
+            long value = 0;
+            for (int j = 0; j < intsPerLong; j++) {
+                value |= (ints[start + j] & mask) << (j * bitsPerEntry);
+            }
+            longs[i] = value;
+        }
 
-            out[i] = (int) ((in[longIndex] >>> (bitsPerEntry * subIndex)) & mask);
+        // The last long may be partially filled
+        int start = full * intsPerLong;
+        if (start < ints.length) {
+            long value = 0;
+            for (int j = 0; start + j < ints.length; j++) {
+                value |= (ints[start + j] & mask) << (j * bitsPerEntry);
+            }
+            longs[full] = value;
+        }
+    }
+
+    private static void unpack(int[] out, long[] in, int bitsPerEntry, int intsPerLong) {
+        int mask = (int) ((1L << bitsPerEntry) - 1L);
+        int full = out.length / intsPerLong;
+        for (int i = 0; i < full; i++) {
+            int start = i * intsPerLong;
+            long value = in[i];
+            for (int j = 0; j < intsPerLong; j++) {
+                out[start + j] = (int) (value >>> (j * bitsPerEntry)) & mask;
+            }
+        }
+
+        int start = full * intsPerLong;
+        if (start < out.length) {
+            long value = in[full];
+            for (int j = 0; start + j < out.length; j++) {
+                out[start + j] = (int) (value >>> (j * bitsPerEntry)) & mask;
+            }
         }
     }
 }
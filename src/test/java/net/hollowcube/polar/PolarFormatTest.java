@@ -0,0 +1,129 @@
+package net.hollowcube.polar;
+
+import net.hollowcube.polar.model.EncodedChunk;
+import net.hollowcube.polar.model.PolarChunk;
+import net.hollowcube.polar.model.PolarWorld;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import static net.hollowcube.polar.TestWorlds.assertChunkEquals;
+import static net.hollowcube.polar.TestWorlds.assertWorldEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PolarFormatTest {
+    private static final int RADIUS = 6;
+
+    @ParameterizedTest
+    @EnumSource(CompressionType.class)
+    void worldRoundTrip(CompressionType compression) throws IOException {
+        for (boolean chunkFrames : new boolean[]{false, true}) {
+            PolarWorld world = TestWorlds.world(10, compression, RADIUS);
+            world.setChunkFrames(chunkFrames);
+            byte[] bytes = PolarFormat.WRITER.write(world);
+
+            PolarWorld read = PolarFormat.READER.read(bytes);
+            assertEquals(compression, read.compression());
+            assertEquals(chunkFrames, read.chunkFrames());
+            assertEquals(world.minSection(), read.minSection());
+            assertEquals(world.maxSection(), read.maxSection());
+            assertWorldEquals(world, read);
+            assertWorldEquals(world, PolarFormat.READER.read(new ByteArrayInputStream(bytes)));
+        }
+    }
+
+    @Test
+    void compressionLevelRoundTrip() throws IOException {
+        // LZ4 levels above 0 use the high compression mode, which is decompressed like the fast one.
+        Map<CompressionType, int[]> levels = Map.of(
+                CompressionType.ZSTD, new int[]{-1, 1, 19},
+                CompressionType.LZ4, new int[]{0, 1, 9, 17});
+        for (Map.Entry<CompressionType, int[]> entry : levels.entrySet()) {
+            for (int level : entry.getValue()) {
+                for (boolean chunkFrames : new boolean[]{false, true}) {
+                    PolarWorld world = TestWorlds.world(14, entry.getKey(), RADIUS);
+                    world.setCompressionLevel(level);
+                    world.setChunkFrames(chunkFrames);
+
+                    byte[] bytes = PolarFormat.WRITER.write(world);
+                    assertWorldEquals(world, PolarFormat.READER.read(bytes));
+                    assertWorldEquals(world, PolarFormat.READER.read(new ByteArrayInputStream(bytes)));
+
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    PolarFormat.WRITER.write(world, out);
+                    assertWorldEquals(world, PolarFormat.READER.read(out.toByteArray()));
+                    assertWorldEquals(world, PolarFormat.READER.read(new ByteArrayInputStream(out.toByteArray())));
+                }
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(CompressionType.class)
+    void indexRoundTrip(CompressionType compression) throws IOException {
+        for (boolean chunkFrames : new boolean[]{false, true}) {
+            PolarWorld world = TestWorlds.world(11, compression, RADIUS);
+            world.setChunkFrames(chunkFrames);
+            byte[] bytes = PolarFormat.WRITER.write(world);
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+            PolarChunkIndex[] indices = {
+                    PolarFormat.READER.readIndex(bytes),
+                    PolarFormat.READER.readIndex(direct),
+                    PolarFormat.READER.readIndex(new ByteArrayInputStream(bytes)),
+            };
+            for (PolarChunkIndex index : indices) {
+                assertEquals(world.chunkIndices().size(), index.size());
+                assertEquals(chunkFrames, index.chunkFrames());
+                for (PolarChunk chunk : world.chunks()) {
+                    assertTrue(index.contains(chunk.x(), chunk.z()));
+                    assertChunkEquals(chunk, index.readChunk(chunk.x(), chunk.z()));
+                }
+                assertFalse(index.contains(RADIUS, RADIUS));
+                assertNull(index.readChunk(RADIUS, RADIUS));
+                assertNull(index.encodedChunk(RADIUS, RADIUS));
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(CompressionType.class)
+    void encodedChunksDecodeAsIndexed(CompressionType compression) {
+        PolarWorld world = TestWorlds.world(12, compression, RADIUS);
+        world.setChunkFrames(true);
+        PolarChunkIndex index = PolarFormat.READER.readIndex(PolarFormat.WRITER.write(world));
+
+        int sectionCount = world.maxSection() - world.minSection() + 1;
+        for (PolarChunk chunk : world.chunks()) {
+            EncodedChunk encoded = index.encodedChunk(chunk.x(), chunk.z());
+            assertEquals(compression, encoded.frameCompression());
+            assertChunkEquals(chunk, index.reader().readChunk(encoded, sectionCount));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(CompressionType.class)
+    void lazyWorldRoundTrip(CompressionType compression) {
+        for (boolean chunkFrames : new boolean[]{false, true}) {
+            PolarWorld world = TestWorlds.world(13, compression, RADIUS);
+            world.setChunkFrames(chunkFrames);
+            byte[] bytes = PolarFormat.WRITER.write(world);
+
+            for (boolean retainDecoded : new boolean[]{false, true}) {
+                PolarWorld lazy = new PolarWorld(PolarFormat.READER.readIndex(bytes), retainDecoded);
+                assertWorldEquals(world, lazy);
+                // Written again without decoding, or from the decoded chunks when retained.
+                assertWorldEquals(world, PolarFormat.READER.read(PolarFormat.WRITER.write(lazy)));
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package net.hollowcube.polar;
+
+import it.unimi.dsi.fastutil.longs.LongList;
+import net.hollowcube.polar.model.EncodedChunk;
+import net.hollowcube.polar.model.PolarChunk;
+import net.hollowcube.polar.model.PolarSection;
+import net.hollowcube.polar.model.PolarWorld;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.hollowcube.polar.TestWorlds.assertWorldEquals;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PolarWriterTest {
+    // More chunks than fit in a single group
+    private static final int RADIUS = 9;
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+    private static final int MAX_CHUNK_STRINGS = (TestWorlds.MAX_SECTION - TestWorlds.MIN_SECTION + 1) * 43;
+    private static final int DICTIONARY_SIZE = 4 * 1024;
+    // The strings a table may grow by before it is compacted, besides a quarter of its size, as in PolarWorld
+    private static final int STRING_TABLE_SLACK = 64;
+
+    @ParameterizedTest
+    @EnumSource(CompressionType.class)
+    void parallelWriteIsIdentical(CompressionType compression) throws IOException {
+        for (boolean chunkFrames : new boolean[]{false, true}) {
+            PolarWorld sequential = TestWorlds.world(1, compression, RADIUS);
+            PolarWorld parallel = TestWorlds.world(1, compression, RADIUS);
+            sequential.setChunkFrames(chunkFrames);
+            parallel.setChunkFrames(chunkFrames);
+            byte[] expected = PolarFormat.WRITER.write(sequential);
+            assertArrayEquals(expected, PolarFormat.WRITER.write(parallel, POOL), "frames " + chunkFrames);
+            assertWorldEquals(sequential, PolarFormat.READER.read(expected));
+
+            ByteArrayOutputStream sequentialOut = new ByteArrayOutputStream(), parallelOut = new ByteArrayOutputStream();
+            sequential = TestWorlds.world(1, compression, RADIUS);
+            parallel = TestWorlds.world(1, compression, RADIUS);
+            sequential.setChunkFrames(chunkFrames);
+            parallel.setChunkFrames(chunkFrames);
+            PolarFormat.WRITER.write(sequential, sequentialOut);
+            PolarFormat.WRITER.write(parallel, parallelOut, POOL);
+            assertArrayEquals(sequentialOut.toByteArray(), parallelOut.toByteArray(), "streamed, frames " + chunkFrames);
+            assertWorldEquals(sequential, PolarFormat.READER.read(sequentialOut.toByteArray()));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(CompressionType.class)
+    void parallelRewriteIsIdentical(CompressionType compression) {
+        PolarWorld sequential = TestWorlds.world(5, compression, RADIUS);
+        PolarWorld parallel = TestWorlds.world(5, compression, RADIUS);
+        sequential.setChunkFrames(true);
+        parallel.setChunkFrames(true);
+        PolarFormat.WRITER.write(sequential);
+        PolarFormat.WRITER.write(parallel, POOL);
+
+        // Only the updated chunks are encoded again, the others are reused from the previous write.
+        Random sequentialRandom = new Random(5), parallelRandom = new Random(5);
+        for (int x = 0; x < RADIUS; x += 2) {
+            sequential.updateChunkAt(x, 0, TestWorlds.chunk(sequentialRandom, x, 0, "minecraft:update_"));
+            parallel.updateChunkAt(x, 0, TestWorlds.chunk(parallelRandom, x, 0, "minecraft:update_"));
+        }
+        byte[] expected = PolarFormat.WRITER.write(sequential);
+        assertArrayEquals(expected, PolarFormat.WRITER.write(parallel, POOL));
+        assertWorldEquals(sequential, PolarFormat.READER.read(expected));
+    }
+
+    @ParameterizedTest
+    @EnumSource(CompressionType.class)
+    void parallelWriteChunksIsIdentical(CompressionType compression) {
+        PolarWorld sequential = TestWorlds.world(6, compression, RADIUS);
+        PolarWorld parallel = TestWorlds.world(6, compression, RADIUS);
+        LongList chunkIndices = sequential.chunkIndices();
+
+        CompressionType frameCompression = compression == CompressionType.NONE ? null : compression;
+        byte[][] expected = PolarFormat.WRITER.writeChunks(sequential, chunkIndices, frameCompression, null);
+        byte[][] actual = PolarFormat.WRITER.writeChunks(parallel, chunkIndices, frameCompression, POOL);
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], actual[i], "chunk " + i);
+        }
+        assertArrayEquals(sequential.strings().toArray(), parallel.strings().toArray());
+    }
+
+    @ParameterizedTest
+    @EnumSource(CompressionType.class)
+    void streamedStringsPrecedeChunks(CompressionType compression) throws IOException {
+        for (boolean chunkFrames : new boolean[]{false, true}) {
+            PolarWorld world = TestWorlds.world(2, compression, RADIUS);
+            world.setChunkFrames(chunkFrames);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            PolarFormat.WRITER.write(world, out);
+
+            assertWorldEquals(world, PolarFormat.READER.read(new ByteArrayInputStream(out.toByteArray())));
+            assertWorldEquals(world, PolarFormat.READER.read(out.toByteArray()));
+            assertWorldEquals(world, new PolarWorld(PolarFormat.READER.readIndex(ByteBuffer.wrap(out.toByteArray())), false));
+            assertWorldEquals(world, new PolarWorld(PolarFormat.READER.readIndex(out.toByteArray()), true));
+        }
+    }
+
+    @Test
+    void unchangedLazyWorldIsNotEncodedAgain() {
+        PolarWorld world = TestWorlds.world(3, CompressionType.ZSTD, RADIUS);
+        world.setChunkFrames(true);
+        byte[] bytes = PolarFormat.WRITER.write(world);
+
+        // The lazy world shares the string table of its index, so its chunks are written as they were read.
+        AtomicInteger encoded = new AtomicInteger();
+        PolarWriter writer = PolarFormat.WRITER.withListener(new PolarListener() {
+            @Override
+            public void chunkEncoded(int x, int z, int bytes, long nanos) {
+                encoded.incrementAndGet();
+            }
+        });
+        PolarWorld lazy = new PolarWorld(PolarFormat.READER.readIndex(bytes), false);
+        byte[] rewritten = writer.write(lazy, POOL);
+        assertEquals(0, encoded.get());
+        assertWorldEquals(world, PolarFormat.READER.read(rewritten));
+    }
+
+    @Test
+    void unusedStringsAreCompacted() {
+        PolarWorld world = TestWorlds.world(4, CompressionType.ZSTD, 2);
+        world.setChunkFrames(true);
+        byte[] bytes = PolarFormat.WRITER.write(world);
+        assertEquals(usedStrings(world), PolarFormat.READER.readIndex(bytes).strings().size());
+
+        // Every update replaces the blocks of a chunk with blocks no other chunk uses.
+        Random random = new Random(4);
+        for (int i = 0; i < 50; i++) {
+            world.updateChunkAt(0, 0, TestWorlds.chunk(random, 0, 0, "minecraft:update_" + i + "_"));
+            bytes = PolarFormat.WRITER.write(world);
+
+            // At most a quarter of the table, and the strings of the previous update, are no longer used.
+            int used = usedStrings(world), size = PolarFormat.READER.readIndex(bytes).strings().size();
+            assertTrue(size <= used + used / 4 + STRING_TABLE_SLACK + MAX_CHUNK_STRINGS, "table of " + size + " strings after update " + i);
+        }
+        assertWorldEquals(world, PolarFormat.READER.read(bytes));
+    }
+
+    @Test
+    void dictionaryCompressedWorldRoundTrips() {
+        PolarWorld world = TestWorlds.world(7, CompressionType.ZSTD, RADIUS);
+        world.setChunkFrames(true);
+        int strings = world.strings().size();
+        ZstdDictionary dictionary = PolarFormat.WRITER.trainDictionary(List.of(world), DICTIONARY_SIZE);
+        assertEquals(strings, world.strings().size(), "training added to the string table of the world");
+
+        world.setZstdDictionary(dictionary);
+        byte[] bytes = PolarFormat.WRITER.write(world);
+        PolarWorld read = PolarFormat.READER.read(bytes);
+        assertNotNull(read.zstdDictionary());
+        assertEquals(dictionary.id(), read.zstdDictionary().id());
+        assertWorldEquals(world, read);
+        assertWorldEquals(world, new PolarWorld(PolarFormat.READER.readIndex(bytes), true));
+    }
+
+    @Test
+    void chunkFrameWithoutItsDictionaryIsRejected() {
+        PolarWorld world = TestWorlds.world(7, CompressionType.ZSTD, RADIUS);
+        world.setChunkFrames(true);
+        world.setZstdDictionary(PolarFormat.WRITER.trainDictionary(List.of(world), DICTIONARY_SIZE));
+        PolarChunkIndex index = PolarFormat.READER.readIndex(PolarFormat.WRITER.write(world));
+        EncodedChunk encoded = index.encodedChunk(0, 0);
+        assertNotNull(encoded);
+        int sectionCount = TestWorlds.MAX_SECTION - TestWorlds.MIN_SECTION + 1;
+
+        ZstdDictionary other = PolarFormat.WRITER.trainDictionary(
+                List.of(TestWorlds.world(8, CompressionType.ZSTD, RADIUS)), DICTIONARY_SIZE);
+        for (ZstdDictionary dictionary : Arrays.asList(null, other)) {
+            EncodedChunk frame = new EncodedChunk(encoded.version(), encoded.frameCompression(), dictionary,
+                    encoded.strings(), encoded.data());
+            assertThrows(PolarReader.Error.class, () -> PolarFormat.READER.readChunk(frame, sectionCount),
+                    dictionary == null ? "missing dictionary" : "different dictionary");
+        }
+    }
+
+    private static int usedStrings(PolarWorld world) {
+        Set<String> strings = new HashSet<>();
+        for (PolarChunk chunk : world.chunks()) {
+            for (PolarSection section : chunk.sections()) {
+                if (section.isEmpty()) continue;
+                strings.addAll(Arrays.asList(section.blockPalette()));
+                strings.addAll(Arrays.asList(section.biomePalette()));
+            }
+        }
+        return strings.size();
+    }
+}
@@ -0,0 +1,106 @@
+package net.hollowcube.polar;
+
+import net.hollowcube.polar.model.PolarChunk;
+import net.hollowcube.polar.model.PolarSection;
+import net.hollowcube.polar.model.PolarWorld;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Random worlds for the format tests, the same seed always gives the same world.
+ */
+public final class TestWorlds {
+    public static final byte MIN_SECTION = -4;
+    public static final byte MAX_SECTION = 3;
+
+    public static PolarWorld world(long seed, CompressionType compression, int radius) {
+        Random random = new Random(seed);
+        List<PolarChunk> chunks = new ArrayList<>();
+        for (int x = -radius; x < radius; x++) {
+            for (int z = -radius; z < radius; z++) {
+                chunks.add(chunk(random, x, z, "minecraft:block_"));
+            }
+        }
+        return new PolarWorld(PolarWorld.LATEST_VERSION, compression, MIN_SECTION, MAX_SECTION, chunks);
+    }
+
+    public static PolarChunk chunk(Random random, int x, int z, String blockPrefix) {
+        PolarSection[] sections = new PolarSection[MAX_SECTION - MIN_SECTION + 1];
+        for (int i = 0; i < sections.length; i++) {
+            sections[i] = random.nextInt(4) == 0 ? new PolarSection() : section(random, blockPrefix);
+        }
+        List<PolarChunk.BlockEntity> blockEntities = random.nextBoolean()
+                ? List.of(new PolarChunk.BlockEntity(1, 2, 3, "minecraft:chest", null)) : List.of();
+        byte[] userData = new byte[random.nextInt(4)];
+        random.nextBytes(userData);
+        return new PolarChunk(x, z, sections, blockEntities, new byte[PolarChunk.HEIGHTMAPS.length][], userData);
+    }
+
+    private static PolarSection section(Random random, String blockPrefix) {
+        String[] blockPalette = new String[1 + random.nextInt(40)];
+        for (int i = 0; i < blockPalette.length; i++) blockPalette[i] = blockPrefix + random.nextInt(200) + "_" + i;
+        int[] blockData = null;
+        if (blockPalette.length > 1) blockData = data(random, PolarSection.BLOCK_PALETTE_SIZE, blockPalette.length);
+
+        String[] biomePalette = new String[1 + random.nextInt(3)];
+        for (int i = 0; i < biomePalette.length; i++) biomePalette[i] = "minecraft:biome_" + i;
+        int[] biomeData = null;
+        if (biomePalette.length > 1) biomeData = data(random, PolarSection.BIOME_PALETTE_SIZE, biomePalette.length);
+
+        byte[] blockLight = null, skyLight = null;
+        if (random.nextBoolean()) {
+            blockLight = new byte[2048];
+            random.nextBytes(blockLight);
+        }
+        if (random.nextBoolean()) {
+            skyLight = new byte[2048];
+            Arrays.fill(skyLight, (byte) 0xFF);
+        }
+        return new PolarSection(blockPalette, blockData, biomePalette, biomeData, blockLight, skyLight);
+    }
+
+    private static int[] data(Random random, int length, int paletteSize) {
+        int[] data = new int[length];
+        for (int i = 0; i < length; i++) data[i] = random.nextInt(paletteSize);
+        return data;
+    }
+
+    public static void assertChunkEquals(PolarChunk expected, PolarChunk actual) {
+        assertNotNull(actual, "missing chunk " + expected.x() + ", " + expected.z());
+        assertEquals(expected.x(), actual.x());
+        assertEquals(expected.z(), actual.z());
+        assertEquals(expected.sections().length, actual.sections().length);
+        for (int i = 0; i < expected.sections().length; i++) {
+            PolarSection a = expected.sections()[i], b = actual.sections()[i];
+            assertEquals(a.isEmpty(), b.isEmpty());
+            if (a.isEmpty()) continue;
+            assertArrayEquals(a.blockPalette(), b.blockPalette());
+            if (a.blockPalette().length > 1) assertArrayEquals(a.blockData(), b.blockData());
+            assertArrayEquals(a.biomePalette(), b.biomePalette());
+            if (a.biomePalette().length > 1) assertArrayEquals(a.biomeData(), b.biomeData());
+            assertEquals(a.hasBlockLightData(), b.hasBlockLightData());
+            if (a.hasBlockLightData()) assertArrayEquals(a.blockLight(), b.blockLight());
+            assertEquals(a.hasSkyLightData(), b.hasSkyLightData());
+            if (a.hasSkyLightData()) assertArrayEquals(a.skyLight(), b.skyLight());
+        }
+        assertEquals(expected.blockEntities(), actual.blockEntities());
+        assertArrayEquals(expected.userData(), actual.userData());
+    }
+
+    public static void assertWorldEquals(PolarWorld expected, PolarWorld actual) {
+        assertEquals(expected.chunkIndices().size(), actual.chunkIndices().size());
+        for (PolarChunk chunk : expected.chunks()) {
+            assertChunkEquals(chunk, actual.chunkAt(chunk.x(), chunk.z()));
+        }
+    }
+
+    private TestWorlds() {
+    }
+}
@@ -0,0 +1,76 @@
+package net.hollowcube.polar.minestom;
+
+import net.hollowcube.polar.CompressionType;
+import net.hollowcube.polar.TestWorlds;
+import net.hollowcube.polar.model.PolarWorld;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static net.hollowcube.polar.TestWorlds.assertWorldEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JournalPolarChunkLoaderTest {
+    private static final int RADIUS = 4;
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @EnumSource(CompressionType.class)
+    void journaledChangesAreReplayed(CompressionType compression) {
+        Path path = directory.resolve(compression + ".polar");
+        JournalPolarChunkLoader loader = new JournalPolarChunkLoader(path);
+        PolarWorld world = TestWorlds.world(30, compression, RADIUS);
+
+        // The first save writes the world file, following ones only journal the updated chunks.
+        loader.saveWorld(world).join();
+        assertFalse(Files.exists(loader.getJournalPath()));
+        update(world, 31, 0, 0);
+        update(world, 32, 1, -1);
+        loader.saveWorld(world).join();
+        assertTrue(Files.exists(loader.getJournalPath()));
+
+        assertWorldEquals(world, new JournalPolarChunkLoader(path).readWorld().join());
+    }
+
+    @Test
+    void tornRecordIsDiscarded() throws IOException {
+        Path path = directory.resolve("world.polar");
+        JournalPolarChunkLoader loader = new JournalPolarChunkLoader(path);
+        PolarWorld world = TestWorlds.world(33, CompressionType.ZSTD, RADIUS);
+        loader.saveWorld(world).join();
+        update(world, 34, 0, 0);
+        loader.saveWorld(world).join();
+
+        // A crash while appending leaves a record header promising more bytes than were written.
+        long journalSize = Files.size(loader.getJournalPath());
+        ByteBuffer torn = ByteBuffer.allocate(4 + 4 + 3).putInt(100).putInt(0).put(new byte[]{1, 2, 3});
+        Files.write(loader.getJournalPath(), torn.array(), StandardOpenOption.APPEND);
+
+        JournalPolarChunkLoader replayed = new JournalPolarChunkLoader(path);
+        PolarWorld read = replayed.readWorld().join();
+        assertWorldEquals(world, read);
+        assertEquals(journalSize, Files.size(loader.getJournalPath()));
+
+        // Following records are appended after the last complete one.
+        update(world, 35, -1, 1);
+        update(read, 35, -1, 1);
+        replayed.saveWorld(read).join();
+        assertWorldEquals(world, new JournalPolarChunkLoader(path).readWorld().join());
+    }
+
+    private static void update(PolarWorld world, long seed, int x, int z) {
+        world.updateChunkAt(x, z, TestWorlds.chunk(new Random(seed), x, z, "minecraft:update_"));
+    }
+}
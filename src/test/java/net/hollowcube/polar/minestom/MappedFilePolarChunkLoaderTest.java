@@ -0,0 +1,57 @@
+package net.hollowcube.polar.minestom;
+
+import net.hollowcube.polar.CompressionType;
+import net.hollowcube.polar.TestWorlds;
+import net.hollowcube.polar.model.PolarWorld;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+
+import static net.hollowcube.polar.TestWorlds.assertWorldEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MappedFilePolarChunkLoaderTest {
+    private static final int RADIUS = 4;
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @EnumSource(CompressionType.class)
+    void worldRoundTrip(CompressionType compression) {
+        for (boolean chunkFrames : new boolean[]{false, true}) {
+            MappedFilePolarChunkLoader loader = new MappedFilePolarChunkLoader(directory.resolve("world-" + chunkFrames + ".polar"));
+            PolarWorld world = TestWorlds.world(20, compression, RADIUS);
+            world.setChunkFrames(chunkFrames);
+            loader.saveWorld(world).join();
+
+            assertWorldEquals(world, loader.readWorld().join());
+        }
+    }
+
+    @Test
+    void mappedWorldCanBeSavedOver() {
+        MappedFilePolarChunkLoader loader = new MappedFilePolarChunkLoader(directory.resolve("world.polar"));
+        PolarWorld expected = TestWorlds.world(21, CompressionType.NONE, RADIUS);
+        loader.saveWorld(expected).join();
+        PolarWorld mapped = loader.readWorld().join();
+
+        // The mapped world keeps reading its unchanged chunks from the previous file once it was saved over.
+        expected.updateChunkAt(0, 0, TestWorlds.chunk(new Random(21), 0, 0, "minecraft:update_"));
+        mapped.updateChunkAt(0, 0, TestWorlds.chunk(new Random(21), 0, 0, "minecraft:update_"));
+        loader.saveWorld(mapped).join();
+        assertWorldEquals(expected, mapped);
+        assertWorldEquals(expected, loader.readWorld().join());
+    }
+
+    @Test
+    void missingWorldIsNotRead() {
+        MappedFilePolarChunkLoader loader = new MappedFilePolarChunkLoader(directory.resolve("missing.polar"));
+        assertThrows(CompletionException.class, () -> loader.readWorld().join());
+    }
+}
@@ -0,0 +1,116 @@
+package net.hollowcube.polar.minestom;
+
+import net.minestom.server.MinecraftServer;
+import net.minestom.server.instance.Chunk;
+import net.minestom.server.instance.Instance;
+import net.minestom.server.instance.InstanceContainer;
+import net.minestom.server.instance.block.Block;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardedPolarChunkLoaderTest {
+    // Regions of 2x2 chunks, so a few chunks span several regions.
+    private static final int REGION_SHIFT = 1;
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final Block LOG = Block.OAK_LOG.withProperty("axis", "x");
+
+    static {
+        MinecraftServer.init();
+    }
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void chunksRoundTripThroughRegions() {
+        ShardedPolarChunkLoader loader = new ShardedPolarChunkLoader(directory, REGION_SHIFT);
+        InstanceContainer instance = MinecraftServer.getInstanceManager().createInstanceContainer(loader);
+        for (int x = 0; x < 3; x++) {
+            await(instance, instance.loadChunk(x, 0));
+            instance.setBlock(x * Chunk.CHUNK_SIZE_X, 0, 0, Block.STONE);
+            instance.setBlock(x * Chunk.CHUNK_SIZE_X + 1, 0, 0, LOG);
+        }
+        await(instance, loader.saveChunksAsync(instance.getChunks()));
+
+        assertTrue(Files.exists(directory.resolve(ShardedPolarChunkLoader.MANIFEST_FILE_NAME)));
+        assertTrue(Files.exists(loader.getRegionPath(0, 0)));
+        assertTrue(Files.exists(loader.getRegionPath(2, 0)));
+        assertEquals(directory.resolve("r.1.0.polar"), loader.getRegionPath(2, 0));
+
+        // The region size is read from the manifest.
+        ShardedPolarChunkLoader reloaded = new ShardedPolarChunkLoader(directory);
+        InstanceContainer reloadedInstance = MinecraftServer.getInstanceManager().createInstanceContainer(reloaded);
+        for (int x = 0; x < 3; x++) {
+            await(reloadedInstance, reloadedInstance.loadChunk(x, 0));
+            assertEquals(Block.STONE, reloadedInstance.getBlock(x * Chunk.CHUNK_SIZE_X, 0, 0));
+            assertEquals(LOG, reloadedInstance.getBlock(x * Chunk.CHUNK_SIZE_X + 1, 0, 0));
+        }
+        assertEquals(2, reloaded.getOpenRegionCount());
+    }
+
+    @Test
+    void regionsAreSavedAndReleasedOnceUnloaded() {
+        ShardedPolarChunkLoader loader = new ShardedPolarChunkLoader(directory, REGION_SHIFT);
+        InstanceContainer instance = MinecraftServer.getInstanceManager().createInstanceContainer(loader);
+        Chunk first = await(instance, instance.loadChunk(0, 0));
+        Chunk second = await(instance, instance.loadChunk(1, 1));
+        assertEquals(1, loader.getOpenRegionCount());
+        instance.setBlock(Chunk.CHUNK_SIZE_X, 0, Chunk.CHUNK_SIZE_Z, LOG);
+
+        // The region stays open until its last chunk is unloaded.
+        instance.unloadChunk(first);
+        assertFalse(Files.exists(loader.getRegionPath(0, 0)));
+        instance.unloadChunk(second);
+        await(instance, () -> loader.getOpenRegionCount() == 0);
+        assertTrue(Files.exists(loader.getRegionPath(0, 0)));
+
+        ShardedPolarChunkLoader reloaded = new ShardedPolarChunkLoader(directory);
+        InstanceContainer reloadedInstance = MinecraftServer.getInstanceManager().createInstanceContainer(reloaded);
+        await(reloadedInstance, reloadedInstance.loadChunk(1, 1));
+        assertEquals(LOG, reloadedInstance.getBlock(Chunk.CHUNK_SIZE_X, 0, Chunk.CHUNK_SIZE_Z));
+    }
+
+    @Test
+    void regionShiftMustMatchTheWorld() {
+        ShardedPolarChunkLoader loader = new ShardedPolarChunkLoader(directory, REGION_SHIFT);
+        MinecraftServer.getInstanceManager().createInstanceContainer(loader);
+
+        assertThrows(IllegalStateException.class, () -> MinecraftServer.getInstanceManager()
+                .createInstanceContainer(new ShardedPolarChunkLoader(directory, REGION_SHIFT + 1)));
+        assertThrows(IllegalArgumentException.class, () -> new ShardedPolarChunkLoader(directory, 16));
+    }
+
+    @Test
+    void chunksCannotBeLoadedBeforeTheInstance() {
+        ShardedPolarChunkLoader loader = new ShardedPolarChunkLoader(directory);
+        assertThrows(IllegalStateException.class, () -> loader.loadChunk(null, 0, 0));
+        assertThrows(IllegalStateException.class, () -> loader.saveChunksAsync(List.of()));
+    }
+
+    // Chunks are copied into their regions on the next tick, which the tests run themselves.
+    private static <T> T await(Instance instance, CompletableFuture<T> future) {
+        await(instance, future::isDone);
+        return future.join();
+    }
+
+    private static void await(Instance instance, BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting for the loader");
+            instance.scheduler().processTick();
+            Thread.onSpinWait();
+        }
+    }
+}
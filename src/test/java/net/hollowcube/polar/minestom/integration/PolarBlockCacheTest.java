@@ -0,0 +1,63 @@
+package net.hollowcube.polar.minestom.integration;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PolarBlockCacheTest {
+    private static final List<String> STATES = List.of("minecraft:air", "minecraft:stone", "minecraft:grass_block[snowy=false]");
+
+    @Test
+    void statesAreResolvedOnce() {
+        CountingBlockCache cache = new CountingBlockCache(PolarBlockCache.DEFAULT_MAX_SIZE);
+        for (int i = 0; i < 3; i++) {
+            for (int stateId = 0; stateId < STATES.size(); stateId++) {
+                assertEquals(stateId, cache.getStateId(STATES.get(stateId)));
+                assertEquals(STATES.get(stateId), cache.getBlockState(stateId));
+            }
+        }
+        assertEquals(STATES.size(), cache.stateIdsComputed.get());
+        assertEquals(STATES.size(), cache.blockStatesComputed.get());
+    }
+
+    @Test
+    void statesPastTheMaxSizeAreResolvedOnEveryUse() {
+        CountingBlockCache cache = new CountingBlockCache(1);
+        for (int i = 0; i < 3; i++) {
+            for (int stateId = 0; stateId < STATES.size(); stateId++) {
+                assertEquals(stateId, cache.getStateId(STATES.get(stateId)));
+                assertEquals(STATES.get(stateId), cache.getBlockState(stateId));
+            }
+        }
+
+        // Only the first state fits in the cache.
+        int uncached = 3 * (STATES.size() - 1);
+        assertEquals(1 + uncached, cache.stateIdsComputed.get());
+        assertEquals(1 + uncached, cache.blockStatesComputed.get());
+    }
+
+    private static final class CountingBlockCache extends PolarBlockCache {
+        private final AtomicInteger stateIdsComputed = new AtomicInteger();
+        private final AtomicInteger blockStatesComputed = new AtomicInteger();
+
+        CountingBlockCache(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected int computeStateId(@NotNull String blockState) {
+            stateIdsComputed.incrementAndGet();
+            return STATES.indexOf(blockState);
+        }
+
+        @Override
+        protected @NotNull String computeBlockState(int stateId) {
+            blockStatesComputed.incrementAndGet();
+            return STATES.get(stateId);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package net.hollowcube.polar.model;
+
+import net.hollowcube.polar.PolarFormat;
+import net.hollowcube.polar.util.LightUtil;
+import net.hollowcube.polar.util.PaletteUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PolarSectionTest {
+    // The height of the worlds written by readBack
+    private static final int WORLD_HEIGHT = 2 * 16;
+    private static final int MOTION_BLOCKING = PolarChunk.heightmapIndex(PolarChunk.HEIGHTMAP_MOTION_BLOCKING);
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12})
+    void blockDataRoundTrip(int bitsPerEntry) {
+        for (int paletteSize : paletteSizes(bitsPerEntry)) {
+            int[] blockData = randomData(PolarSection.BLOCK_PALETTE_SIZE, paletteSize);
+            PolarSection section = new PolarSection(palette("block", paletteSize), blockData,
+                    palette("biome", 1), null, null, null);
+
+            assertArrayEquals(blockData, section.blockData(), "palette size " + paletteSize);
+            assertArrayEquals(blockData, readBack(section).blockData(), "palette size " + paletteSize);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3, 4, 5, 6})
+    void biomeDataRoundTrip(int bitsPerEntry) {
+        for (int paletteSize : paletteSizes(bitsPerEntry)) {
+            int[] biomeData = randomData(PolarSection.BIOME_PALETTE_SIZE, paletteSize);
+            PolarSection section = new PolarSection(palette("block", 1), null,
+                    palette("biome", paletteSize), biomeData, null, null);
+
+            assertArrayEquals(biomeData, section.biomeData(), "palette size " + paletteSize);
+            assertArrayEquals(biomeData, readBack(section).biomeData(), "palette size " + paletteSize);
+        }
+    }
+
+    @Test
+    void darkLightRoundTrip() {
+        // Entirely dark light is still light, only missing light is recomputed when loaded.
+        PolarSection section = new PolarSection(palette("block", 1), null, palette("biome", 1), null,
+                LightUtil.uniform(0), LightUtil.uniform(0));
+
+        PolarSection read = readBack(section);
+        assertTrue(read.hasBlockLightData());
+        assertTrue(read.hasSkyLightData());
+        assertArrayEquals(new byte[LightUtil.LIGHT_SIZE], read.blockLight());
+        assertArrayEquals(new byte[LightUtil.LIGHT_SIZE], read.skyLight());
+    }
+
+    @Test
+    void heightmapRoundTrip() {
+        long[] heightmap = heightmap(WORLD_HEIGHT);
+        byte[][] heightmaps = new byte[PolarChunk.HEIGHTMAPS.length][];
+        heightmaps[MOTION_BLOCKING] = bytes(heightmap);
+
+        PolarChunk read = readBack(new PolarChunk(0, 0, sections(), List.of(), heightmaps, new byte[0]));
+        assertArrayEquals(heightmap, read.heightmapData(MOTION_BLOCKING, WORLD_HEIGHT));
+        assertNull(read.heightmapData(PolarChunk.heightmapIndex(PolarChunk.HEIGHTMAP_WORLD_SURFACE), WORLD_HEIGHT));
+    }
+
+    @Test
+    void wrongLengthHeightmapIsRejected() {
+        byte[][] heightmaps = new byte[PolarChunk.HEIGHTMAPS.length][];
+        heightmaps[MOTION_BLOCKING] = bytes(heightmap(WORLD_HEIGHT));
+        PolarChunk chunk = new PolarChunk(0, 0, sections(), List.of(), heightmaps, new byte[0]);
+
+        // A heightmap written for another world height is recomputed when loaded, rather than misread.
+        assertNull(chunk.heightmapData(MOTION_BLOCKING, 384));
+        heightmaps[MOTION_BLOCKING] = new byte[PolarChunk.HEIGHTMAP_BYTE_SIZE];
+        assertNull(chunk.heightmapData(MOTION_BLOCKING, WORLD_HEIGHT));
+    }
+
+    /**
+     * The smallest and largest palette sizes using the given width.
+     */
+    private static int[] paletteSizes(int bitsPerEntry) {
+        int[] sizes = bitsPerEntry == 1 ? new int[]{2} : new int[]{(1 << (bitsPerEntry - 1)) + 1, 1 << bitsPerEntry};
+        for (int size : sizes) assertEquals(bitsPerEntry, PaletteUtil.bitsPerEntry(size));
+        return sizes;
+    }
+
+    private static String[] palette(String prefix, int size) {
+        String[] palette = new String[size];
+        for (int i = 0; i < size; i++) palette[i] = "minecraft:" + prefix + "_" + i;
+        return palette;
+    }
+
+    private static int[] randomData(int length, int paletteSize) {
+        Random random = new Random(paletteSize);
+        int[] data = new int[length];
+        for (int i = 0; i < length; i++) data[i] = random.nextInt(paletteSize);
+        // The highest index is always present, so that every bit of the entries is used.
+        data[length - 1] = paletteSize - 1;
+        return data;
+    }
+
+    private static long[] heightmap(int height) {
+        return PaletteUtil.pack(randomData(16 * 16, height + 1), PaletteUtil.bitsPerEntry(height + 1));
+    }
+
+    private static byte[] bytes(long[] data) {
+        ByteBuffer buffer = ByteBuffer.allocate(data.length * Long.BYTES);
+        buffer.asLongBuffer().put(data);
+        return buffer.array();
+    }
+
+    private static PolarSection[] sections() {
+        return new PolarSection[]{new PolarSection(), new PolarSection()};
+    }
+
+    private static PolarSection readBack(PolarSection section) {
+        PolarSection[] sections = new PolarSection[]{section, new PolarSection()};
+        return readBack(new PolarChunk(0, 0, sections, List.of(), new byte[PolarChunk.HEIGHTMAPS.length][], new byte[0]))
+                .sections()[0];
+    }
+
+    private static PolarChunk readBack(PolarChunk chunk) {
+        PolarWorld world = new PolarWorld(PolarWorld.LATEST_VERSION, PolarWorld.DEFAULT_COMPRESSION,
+                (byte) 0, (byte) 1, List.of(chunk));
+        return PolarFormat.READER.read(PolarFormat.WRITER.write(world)).chunkAt(0, 0);
+    }
+}
@@ -0,0 +1,140 @@
+package net.hollowcube.polar.model;
+
+import net.hollowcube.polar.CompressionType;
+import net.hollowcube.polar.PolarFormat;
+import net.hollowcube.polar.PolarListener;
+import net.hollowcube.polar.PolarWriter;
+import net.minestom.server.coordinate.CoordConversion;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PolarWorldTest {
+
+    @Test
+    void eagerWorldDoesNotCacheEncodedChunks() {
+        PolarWorld world = world();
+        assertFalse(world.encodedChunkCache());
+        PolarFormat.WRITER.write(world);
+
+        assertTrue(world.isDirty(0, 0));
+        assertNull(world.encodedChunkAt(0, 0));
+        assertEquals(2, world.dirtyChunkIndices().size());
+    }
+
+    @Test
+    void encodedChunkCacheKeepsWrittenChunksClean() {
+        PolarWorld world = world();
+        world.setEncodedChunkCache(true);
+        PolarFormat.WRITER.write(world);
+        assertFalse(world.isDirty(0, 0));
+        assertNotNull(world.encodedChunkAt(0, 0));
+
+        world.updateChunkAt(1, 0, chunk(1, 0));
+        assertEquals(List.of(CoordConversion.chunkIndex(1, 0)), world.dirtyChunkIndices());
+
+        // Dropping the cache makes every decoded chunk dirty again.
+        world.setEncodedChunkCache(false);
+        assertTrue(world.isDirty(0, 0));
+        assertNull(world.encodedChunkAt(0, 0));
+    }
+
+    @Test
+    void lazyWorldCachesEncodedChunks() {
+        PolarWorld world = new PolarWorld(PolarFormat.READER.readIndex(PolarFormat.WRITER.write(world())), true);
+        assertTrue(world.encodedChunkCache());
+        assertNotNull(world.chunkAt(0, 0));
+        assertFalse(world.isDirty(0, 0));
+
+        world.updateChunkAt(0, 0, chunk(0, 0));
+        PolarFormat.WRITER.write(world);
+        assertFalse(world.isDirty(0, 0));
+    }
+
+    @Test
+    void memoryBudgetEvictsLeastRecentlyUsedChunks() {
+        PolarWorld world = world(4);
+        long chunkSize = world.chunkCacheStats().decodedSize() / 4;
+        world.setMemoryBudget(Long.MAX_VALUE);
+        PolarFormat.WRITER.write(world);
+        assertNotNull(world.chunkAt(0, 0));
+
+        // The chunks are written, so they are dropped right away. Chunk 0, 0 was used last.
+        world.setMemoryBudget(2 * chunkSize);
+        PolarWorld.ChunkCacheStats stats = world.chunkCacheStats();
+        assertEquals(2, stats.evictions());
+        assertEquals(2 * chunkSize, stats.decodedSize());
+        assertEquals(0, stats.misses());
+
+        long hits = stats.hits();
+        assertNotNull(world.chunkAt(3, 0));
+        assertNotNull(world.chunkAt(0, 0));
+        assertEquals(new PolarWorld.ChunkCacheStats(hits + 2, 0, 2, 2 * chunkSize), world.chunkCacheStats());
+
+        // Decoding an evicted chunk evicts the least recently used one in its place.
+        assertNotNull(world.chunkAt(1, 0));
+        assertEquals(new PolarWorld.ChunkCacheStats(hits + 2, 1, 3, 2 * chunkSize), world.chunkCacheStats());
+        assertNotNull(world.chunkAt(0, 0));
+        assertEquals(hits + 3, world.chunkCacheStats().hits());
+        assertNotNull(world.chunkAt(3, 0));
+        assertEquals(2, world.chunkCacheStats().misses());
+        assertEquals((hits + 3) / (double) (hits + 5), world.chunkCacheStats().hitRate());
+    }
+
+    @Test
+    void dirtyChunksAreOnlyEvictedWithAWriter() {
+        PolarWorld world = world(4);
+        long chunkSize = world.chunkCacheStats().decodedSize() / 4;
+        world.setMemoryBudget(2 * chunkSize);
+
+        // Nothing was written, updating the chunks does not encode them.
+        for (int x = 0; x < 4; x++) world.updateChunkAt(x, 0, chunk(x, 0));
+        assertEquals(0, world.chunkCacheStats().evictions());
+        assertEquals(4 * chunkSize, world.chunkCacheStats().decodedSize());
+
+        AtomicInteger encoded = new AtomicInteger();
+        PolarWriter writer = PolarFormat.WRITER.withListener(new PolarListener() {
+            @Override
+            public void chunkEncoded(int x, int z, int bytes, long nanos) {
+                encoded.incrementAndGet();
+            }
+        });
+        world.evictChunks(writer);
+        assertEquals(2, encoded.get());
+        assertEquals(2, world.chunkCacheStats().evictions());
+        assertEquals(2 * chunkSize, world.chunkCacheStats().decodedSize());
+
+        // Evicted chunks stay dirty until written, in their encoded form.
+        for (int x = 0; x < 4; x++) assertTrue(world.isDirty(x, 0));
+        assertNotNull(world.encodedChunkAt(0, 0));
+        assertNotNull(world.chunkAt(0, 0));
+        PolarWorld read = PolarFormat.READER.read(PolarFormat.WRITER.write(world));
+        assertEquals(4, read.chunks().size());
+        assertFalse(world.isDirty(0, 0));
+    }
+
+    private static PolarWorld world() {
+        return world(2);
+    }
+
+    private static PolarWorld world(int chunkCount) {
+        List<PolarChunk> chunks = new ArrayList<>();
+        for (int x = 0; x < chunkCount; x++) chunks.add(chunk(x, 0));
+        return new PolarWorld(PolarWorld.LATEST_VERSION, CompressionType.ZSTD, (byte) 0, (byte) 1, chunks);
+    }
+
+    private static PolarChunk chunk(int x, int z) {
+        PolarSection section = new PolarSection(new String[]{"minecraft:stone"}, null,
+                new String[]{"minecraft:plains"}, null, null, null);
+        return new PolarChunk(x, z, new PolarSection[]{section, new PolarSection()}, List.of(),
+                new byte[PolarChunk.HEIGHTMAPS.length][], new byte[0]);
+    }
+}
@@ -0,0 +1,95 @@
+package net.hollowcube.polar.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PaletteUtilTest {
+    // Section and biome sizes, and lengths leaving the last long partially filled for most widths
+    private static final int[] LENGTHS = {1, 7, 63, 64, 65, 100, 512, 4095, 4096};
+
+    @Test
+    void packMatchesReference() {
+        for (int bitsPerEntry = 1; bitsPerEntry <= 32; bitsPerEntry++) {
+            for (int length : LENGTHS) {
+                int[] ints = randomInts(length, bitsPerEntry);
+                assertArrayEquals(referencePack(ints, bitsPerEntry), PaletteUtil.pack(ints, bitsPerEntry),
+                        bitsPerEntry + " bits, " + length + " entries");
+            }
+        }
+    }
+
+    @Test
+    void unpackMatchesReference() {
+        for (int bitsPerEntry = 1; bitsPerEntry <= 32; bitsPerEntry++) {
+            for (int length : LENGTHS) {
+                int[] ints = randomInts(length, bitsPerEntry);
+                long[] packed = referencePack(ints, bitsPerEntry);
+
+                int[] expected = new int[length], actual = new int[length];
+                referenceUnpack(expected, packed, bitsPerEntry);
+                PaletteUtil.unpack(actual, packed, bitsPerEntry);
+                assertArrayEquals(expected, actual, bitsPerEntry + " bits, " + length + " entries");
+                assertArrayEquals(ints, actual, bitsPerEntry + " bits, " + length + " entries");
+            }
+        }
+    }
+
+    @Test
+    void bitsPerEntry() {
+        assertEquals(1, PaletteUtil.bitsPerEntry(1));
+        assertEquals(1, PaletteUtil.bitsPerEntry(2));
+        assertEquals(2, PaletteUtil.bitsPerEntry(3));
+        assertEquals(4, PaletteUtil.bitsPerEntry(16));
+        assertEquals(5, PaletteUtil.bitsPerEntry(17));
+        assertEquals(12, PaletteUtil.bitsPerEntry(4096));
+    }
+
+    private static int[] randomInts(int length, int bitsPerEntry) {
+        Random random = new Random(length * 64L + bitsPerEntry);
+        long mask = (1L << bitsPerEntry) - 1;
+        int[] ints = new int[length];
+        for (int i = 0; i < length; i++) {
+            ints[i] = (int) (random.nextInt() & mask);
+        }
+        // Every bit of the last entry is set, so that it fills the last long as far as it reaches.
+        ints[length - 1] = (int) mask;
+        return ints;
+    }
+
+    // The implementation before the per-width kernels, which the format was written with.
+
+    private static long[] referencePack(int[] ints, int bitsPerEntry) {
+        int intsPerLong = (int) Math.floor(64d / bitsPerEntry);
+        long[] longs = new long[(int) Math.ceil(ints.length / (double) intsPerLong)];
+
+        long mask = (1L << bitsPerEntry) - 1L;
+        for (int i = 0; i < longs.length; i++) {
+            for (int intIndex = 0; intIndex < intsPerLong; intIndex++) {
+                int bitIndex = intIndex * bitsPerEntry;
+                int intActualIndex = intIndex + i * intsPerLong;
+                if (intActualIndex < ints.length) {
+                    longs[i] |= (ints[intActualIndex] & mask) << bitIndex;
+                }
+            }
+        }
+
+        return longs;
+    }
+
+    private static void referenceUnpack(int[] out, long[] in, int bitsPerEntry) {
+        double intsPerLong = Math.floor(64d / bitsPerEntry);
+        int intsPerLongCeil = (int) Math.ceil(intsPerLong);
+
+        long mask = (1L << bitsPerEntry) - 1L;
+        for (int i = 0; i < out.length; i++) {
+            int longIndex = i / intsPerLongCeil;
+            int subIndex = i % intsPerLongCeil;
+
+            out[i] = (int) ((in[longIndex] >>> (bitsPerEntry * subIndex)) & mask);
+        }
+    }
+}